@@ -1,20 +1,83 @@
 package com.cadebray;
-import com.pi4j.Pi4J;
 import com.pi4j.context.Context;
 import com.pi4j.io.i2c.I2C;
 import com.pi4j.io.i2c.I2CConfig;
 import com.pi4j.io.i2c.I2CProvider;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class AHT20 {
+    // Status byte bits from the AHT20 datasheet
+    private static final int STATUS_BUSY = 0x80;
+    private static final int STATUS_CALIBRATED = 0x08;
+
+    // Command frames are never modified so they are shared instead of allocated per measurement
+    private static final byte[] CMD_INIT = {(byte) 0xBE, (byte) 0x08, (byte) 0x00};
+    private static final byte[] CMD_TRIGGER = {(byte) 0xAC, (byte) 0x33, (byte) 0x00};
+
+    // Timings in milliseconds. A measurement takes about 80 ms, so the first status poll happens a little before that.
+    private static final long INIT_DELAY_MS = 10;
+    private static final long FIRST_POLL_MS = 40;
+    private static final long MIN_BACKOFF_MS = 5;
+    private static final long MAX_BACKOFF_MS = 20;
+    private static final long BUSY_TIMEOUT_MS = 250;
+
+    // Constant scale factor for sensor readings
+    static final double SCALE = 1 << 20; // 2^20 == 1048576
+
+    // Number of times a measurement is re-triggered after a busy timeout or CRC failure before giving up
+    private static final int MAX_ATTEMPTS = 3;
+
     private final I2C i2c;
-    final double SCALE;
+    private final ScheduledExecutorService bus;
+
+    // The measurement in progress. Guarded by this so callers can join a running measurement.
+    private CompletableFuture<SensorReadEvent> pending;
+
+    // Everything below is confined to the bus thread and reused for every measurement
+    private final byte[] frame = new byte[7];
+    private final Runnable startTask = this::start;
+    private final Runnable triggerTask = this::trigger;
+    private final Runnable pollTask = this::poll;
+    private boolean calibrated = false;
+    private int attempt;
+    private long deadline;
+    private long backoff;
+    private volatile long retries = 0;
 
     /**
      * Default configuration for AHT20 sensor.
      * Uses I2C bus 1 and address 0x38
+     * @param pi4j The application's Pi4J context, shared so plugin discovery only runs once
+     */
+    public AHT20(Context pi4j) {
+        this(openBus(pi4j));
+    }
+
+    /**
+     * Configuration for an AHT20 sensor on an already opened I2C device, used to run against an emulated sensor.
+     * @param i2c The I2C device the sensor answers on.
+     */
+    public AHT20(I2C i2c) {
+        this.i2c = i2c;
+
+        // Every bus transaction runs on this thread so measurements never overlap and callers never block
+        this.bus = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "aht20-bus");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Open the sensor on I2C bus 1 at address 0x38.
+     * @param pi4j The Pi4J context to open the bus in.
+     * @return The I2C device.
      */
-    public AHT20() {
-        Context pi4j = Pi4J.newAutoContext();
+    private static I2C openBus(Context pi4j) {
         I2CConfig config = I2C.newConfigBuilder(pi4j)
                 .id("AHT20")
                 .bus(1)
@@ -23,29 +86,151 @@ public class AHT20 {
 
         // Create I2C communication instance
         I2CProvider i2CProvider = pi4j.provider("linuxfs-i2c");
-        this.i2c = i2CProvider.create(config);
+        return i2CProvider.create(config);
+    }
+
+    /**
+     * Start an asynchronous measurement. The measurement is triggered, the status byte is polled with a short backoff
+     * until the busy bit clears, and the 7-byte frame is CRC checked. Corrupted frames or a sensor that stays busy are
+     * retried up to a fixed budget before the future fails. If a measurement is already running the caller gets the
+     * same future instead of starting a second one.
+     * @return Future completed with the sample, or exceptionally if the sensor could not produce a valid frame.
+     */
+    public synchronized CompletableFuture<SensorReadEvent> measureAsync() {
+        if (pending == null) {
+            pending = new CompletableFuture<>();
+            bus.execute(startTask);
+        }
+        return pending;
+    }
+
+    /**
+     * Get the number of measurements re-triggered after a busy timeout or CRC failure.
+     * @return Retries since startup.
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    /**
+     * Stop the bus thread. Called by Spring when the bean is destroyed.
+     */
+    public void close() {
+        bus.shutdownNow();
+    }
+
+    /**
+     * Begin a new measurement with a fresh retry budget.
+     */
+    private void start() {
+        attempt = 1;
+        trigger();
+    }
+
+    /**
+     * Make sure the sensor is calibrated and send the measurement trigger command.
+     */
+    private void trigger() {
+        try {
+            if (!calibrated) {
+                if ((i2c.read() & STATUS_CALIBRATED) == 0) {
+                    // Load the calibration coefficients then come back once the sensor has settled
+                    i2c.write(CMD_INIT, 0, CMD_INIT.length);
+                    calibrated = true;
+                    bus.schedule(triggerTask, INIT_DELAY_MS, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                calibrated = true;
+            }
+
+            i2c.write(CMD_TRIGGER, 0, CMD_TRIGGER.length);
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BUSY_TIMEOUT_MS);
+            backoff = MIN_BACKOFF_MS;
+            bus.schedule(pollTask, FIRST_POLL_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Poll the status byte until the busy bit clears, then read and validate the frame.
+     */
+    private void poll() {
+        try {
+            if ((i2c.read() & STATUS_BUSY) != 0) {
+                if (System.nanoTime() - deadline > 0) {
+                    retry("AHT20 stayed busy for " + BUSY_TIMEOUT_MS + " ms");
+                } else {
+                    bus.schedule(pollTask, backoff, TimeUnit.MILLISECONDS);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+                }
+                return;
+            }
+
+            i2c.read(frame, 0, frame.length);
+
+            if (crc8(frame, 6) != (frame[6] & 0xFF)) {
+                retry("AHT20 frame failed CRC check");
+                return;
+            }
+
+            complete(parse(frame, System.nanoTime()));
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
 
-        // Constant scale factor for sensor readings
-        SCALE = 1 << 20; // 2^20 == 1048576
+    /**
+     * Trigger another measurement if the retry budget allows it, otherwise fail the future.
+     * @param reason Why the attempt that just finished failed.
+     */
+    private void retry(String reason) {
+        if (attempt >= MAX_ATTEMPTS) {
+            fail(new IOException(reason + " after " + attempt + " attempts"));
+        } else {
+            attempt++;
+            retries++;
+            trigger();
+        }
+    }
+
+    /**
+     * Finish the running measurement with a sample.
+     * @param sample The parsed sample.
+     */
+    private void complete(SensorReadEvent sample) {
+        CompletableFuture<SensorReadEvent> result;
+        synchronized (this) {
+            result = pending;
+            pending = null;
+        }
+        result.complete(sample);
     }
 
     /**
-     * Read temperature and humidity from the AHT20 sensor.
-     * @return Array containing humidity (%), temperature (F), temperature (C)
-     * @throws Exception If an error occurs during I2C communication
+     * Finish the running measurement with an error.
+     * @param error The reason the measurement failed.
      */
-    public double[] readSensor() throws Exception {
-        byte[] cmd = {(byte) 0xAC, (byte) 0x33, (byte) 0x00};
-        i2c.write(cmd, 0, 3);
-        
-        Thread.sleep(100);
-        
-        final byte[] data = new byte[6];
-        i2c.read(data, 0, 6);
-        
+    private void fail(Throwable error) {
+        CompletableFuture<SensorReadEvent> result;
+        synchronized (this) {
+            result = pending;
+            pending = null;
+        }
+        result.completeExceptionally(error);
+    }
+
+    /**
+     * Convert a validated frame into a sample. This reads straight from the frame into primitive fields, nothing is
+     * allocated apart from the returned record.
+     * @param data The 7-byte frame; status, 5 bytes of humidity and temperature, CRC.
+     * @param timestampNanos Monotonic time at which the frame was read.
+     * @return The parsed sample.
+     */
+    public static SensorReadEvent parse(byte[] data, long timestampNanos) {
         // Parse out the humidity sensor reading
         final int humid = ((data[1] & 0xFF) << 12) | ((data[2] & 0xFF) << 4) | ((data[3] & 0xF0) >> 4);
-        
+
         // Parse out the temperature sensor reading
         final int temp = ((data[3] & 0x0F) << 16) | ((data[4] & 0xFF) << 8) | (data[5] & 0xFF);
 
@@ -53,6 +238,23 @@ public class AHT20 {
         double temperature_C = temp * 200.0 / SCALE - 50.0;
         double temperature_F = temperature_C * 9.0 / 5.0 + 32.0;
 
-        return new double[] {humidity, temperature_F, temperature_C};
+        return new SensorReadEvent(humidity, temperature_F, temperature_C, humid, temp, timestampNanos);
+    }
+
+    /**
+     * CRC-8 as specified by the AHT20 datasheet; polynomial x^8 + x^5 + x^4 + 1 (0x31), initial value 0xFF.
+     * @param data The bytes to check.
+     * @param length Number of bytes from the start of data to include.
+     * @return The CRC as an unsigned value.
+     */
+    public static int crc8(byte[] data, int length) {
+        int crc = 0xFF;
+        for (int i = 0; i < length; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x31) & 0xFF : (crc << 1) & 0xFF;
+            }
+        }
+        return crc;
     }
 }
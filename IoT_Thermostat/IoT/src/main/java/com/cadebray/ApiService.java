@@ -1,50 +1,168 @@
 package com.cadebray;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import org.springframework.boot.context.properties.ConfigurationProperties;
-import org.springframework.http.*;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 @Component
 @SuppressWarnings("unused") // TODO remove unused warnings when methods are used and I can be sure they are needed
 @ConfigurationProperties(prefix = "api")
 public class ApiService {
-    private final RestTemplate restTemplate;
-    private String token;
+    private static final long RETRY_MIN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long RETRY_MAX_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final HttpTransport transport;
+    private final Outbox outbox;
+    private final TokenManager tokens;
+    private final MeterRegistry registry;
+    private final Counter unauthorizedRetries;
+    private final Counter rejected;
+    private final RequestTimers loginTimers;
+    private final RequestTimers stateTimers;
+    private final RequestTimers stateUpdateTimers;
+    private final RequestTimers telemetryTimers;
+    private final RequestTimers eventTimers;
     private URI rootAddress;
     private String deviceId;
     private String deviceSecret;
+    private int telemetryBatchSize = 120;
+    private long telemetryFlushSeconds = 120;
+    private TelemetryBuffer telemetry = new TelemetryBuffer(3600);
+    private long lastTelemetryFlush = System.nanoTime();
+    // Backoff for outbox delivery, only touched by drainOutbox
+    private long retryDelayNanos = 0;
+    private long retryAt = System.nanoTime();
+
+    // The last state body received and its ETag, replaced together
+    private volatile CachedState cachedState;
+
+    /**
+     * The last remote state received.
+     * @param etag The ETag the backend sent with it, null if none.
+     * @param body The raw response body, used to spot identical payloads.
+     * @param state The parsed state.
+     */
+    private record CachedState(String etag, byte[] body, CurrentState state) {}
+
+    /**
+     * Latency timers of one endpoint and method, registered up front for each status class so timing a request never
+     * looks anything up in the registry.
+     */
+    private static final class RequestTimers {
+        private static final String[] STATUS_CLASSES = {"IO_ERROR", "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+        private final Timer[] timers = new Timer[STATUS_CLASSES.length];
+
+        private RequestTimers(MeterRegistry registry, String endpoint, String method) {
+            for (int i = 0; i < timers.length; i++) {
+                timers[i] = Timer.builder("thermostat.api.requests")
+                        .description("Requests to the backend")
+                        .tag("endpoint", endpoint)
+                        .tag("method", method)
+                        .tag("status", STATUS_CLASSES[i])
+                        .register(registry);
+            }
+        }
+
+        /**
+         * Record the latency of a request to the backend.
+         * @param status The response status code, or 0 if no response arrived.
+         * @param start System.nanoTime() when the request was sent.
+         */
+        private void record(int status, long start) {
+            int index = (status >= 100 && status < 600) ? status / 100 : 0;
+            timers[index].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
 
     /**
      * Constructor for ApiService class with specified root address.
+     * @param transport The shared HTTP transport used for every request to the backend.
+     * @param outbox The durable outbox every outbound request is written to before it is sent.
+     * @param tokens Keeps the device's login token valid.
+     * @param registry The registry the request metrics are reported to.
+     */
+    public ApiService(HttpTransport transport, Outbox outbox, TokenManager tokens, MeterRegistry registry) {
+        this.transport = transport;
+        this.outbox = outbox;
+        this.tokens = tokens;
+        this.registry = registry;
+        tokens.setLogin(this::login);
+
+        this.unauthorizedRetries = Counter.builder("thermostat.api.unauthorized.retries")
+                .description("Requests retried with a fresh token after a 401")
+                .register(registry);
+        this.rejected = Counter.builder("thermostat.outbox.rejected")
+                .description("Outbox records dropped because the backend rejected them for good")
+                .register(registry);
+        this.loginTimers = new RequestTimers(registry, "login", "POST");
+        this.stateTimers = new RequestTimers(registry, "state", "GET");
+        this.stateUpdateTimers = new RequestTimers(registry, "state", "PUT");
+        this.telemetryTimers = new RequestTimers(registry, "telemetry", "POST");
+        this.eventTimers = new RequestTimers(registry, "events", "GET");
+        Gauge.builder("thermostat.outbox.pending", outbox, Outbox::size)
+                .description("Requests waiting in the outbox")
+                .register(registry);
+        Gauge.builder("thermostat.outbox.dropped", outbox, Outbox::getDropped)
+                .description("Requests dropped because the outbox was full")
+                .register(registry);
+        Gauge.builder("thermostat.outbox.compacted", outbox, Outbox::getCompacted)
+                .description("State updates skipped because a newer one superseded them")
+                .register(registry);
+    }
+
+    /**
+     * Report the telemetry backlog. The gauge reads the buffer through this service because setTelemetryCapacity
+     * replaces it. Uses @PostConstruct so the gauge never sees a partly constructed service.
      */
-    public ApiService() {
-        this.restTemplate = new RestTemplate();
+    @PostConstruct
+    public void registerTelemetryGauge() {
+        Gauge.builder("thermostat.telemetry.pending", this, api -> api.telemetry.size())
+                .description("Telemetry samples waiting to be batched")
+                .register(registry);
     }
 
     /**
-     * Generate a new login request object for the device. Can be called to refresh the token when needed,
-     * but should be handled automatically with the scheduler.
+     * Force a new login for the device. Tokens are refreshed automatically shortly before they expire, so this only
+     * needs to be called if the current token is known to be bad.
      */
-    @Scheduled(fixedDelay = 50000)
     public void generateLogin() {
+        tokens.refresh().join();
+    }
+
+    /**
+     * Send the login request for the device. Only the TokenManager should call this, it makes sure concurrent
+     * callers share a single login.
+     * @return Future completed with the new token.
+     */
+    private CompletableFuture<String> login() {
         String form = "deviceId=" + URLEncoder.encode(deviceId, StandardCharsets.UTF_8) +
                 "&secret=" + URLEncoder.encode(deviceSecret, StandardCharsets.UTF_8);
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
-        HttpEntity<String> request = new HttpEntity<>(form, headers);
-
-        URI uri = resolve("/api/iot/login");
-        ResponseEntity<loginResponse> response = restTemplate.postForEntity(uri, request, loginResponse.class);
+        HttpRequest request = transport.request(resolve("/api/iot/login"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
 
-        if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-            this.token = response.getBody().getToken();
-        } else {
-            throw new RuntimeException("Failed to generate login object: " + response.getStatusCode());
-        }
+        return send(loginTimers, request).thenApply(response -> {
+            if (response.statusCode() == 200 && response.body().length > 0) {
+                return transport.fromJson(response.body(), loginResponse.class).getToken();
+            } else {
+                throw new RuntimeException("Failed to generate login object: " + response.statusCode());
+            }
+        });
     }
 
     /**
@@ -52,33 +170,247 @@ public class ApiService {
      * @return Returns a CurrentState class object that has all the appropriate fields.
      */
     public CurrentState getState(){
-        HttpEntity<String> request = new HttpEntity<>(authHeaders());
+        return getStateAsync().join();
+    }
+
+    /**
+     * This is the asynchronous get state request. The calling thread is never blocked on the network.
+     * @return Future completed with the current remote state of the thermostat.
+     */
+    public CompletableFuture<CurrentState> getStateAsync(){
+        return fetchState().thenApply(changed -> changed != null ? changed : cachedState.state());
+    }
+
+    /**
+     * Get the remote state only if it changed since the last request. The request carries If-None-Match, so an
+     * unchanged state costs a 304 with no body.
+     * @return The new remote state, or null if it is the same as last time.
+     */
+    public CurrentState getStateIfChanged(){
+        return fetchState().join();
+    }
 
+    /**
+     * Conditionally fetch the remote state and update the cache.
+     * @return Future completed with the new state, or null if neither the ETag nor the payload changed.
+     */
+    private CompletableFuture<CurrentState> fetchState(){
         URI uri = resolve("/api/iot/" + getDeviceId());
-        ResponseEntity<CurrentState> response = restTemplate.exchange(uri, HttpMethod.GET, request, CurrentState.class);
+        CachedState cached = cachedState;
+
+        return sendAuthorized(stateTimers, token -> {
+            HttpRequest.Builder builder = authorized(uri, token).GET();
+            if (cached != null && cached.etag() != null) {
+                builder.header("If-None-Match", cached.etag());
+            }
+            return builder.build();
+        }).thenApply(response -> {
+            if (response.statusCode() == 304 && cached != null) {
+                return null;
+            } else if (response.statusCode() == 200 && response.body().length > 0) {
+                String etag = response.headers().firstValue("ETag").orElse(null);
+                if (cached != null && Arrays.equals(cached.body(), response.body())) {
+                    cachedState = new CachedState(etag, cached.body(), cached.state());
+                    return null;
+                }
+                CurrentState state = transport.fromJson(response.body(), CurrentState.class);
+                cachedState = new CachedState(etag, response.body(), state);
+                return state;
+            } else {
+                throw new RuntimeException("Failed to get current state: " + response.statusCode());
+            }
+        });
+    }
+
+    /**
+     * Open the Server-Sent Events stream of remote state changes. The handler is only called once the status is
+     * known, a 401 also drops the rejected token so the next attempt logs in again. Cancelling the returned future
+     * aborts the exchange, even one still waiting for the response headers.
+     * @param lastEventId The last event id received, or a negative value to start with the current state.
+     * @param handler Consumes the stream.
+     * @return Future completed once the stream ends.
+     */
+    public CompletableFuture<HttpResponse<Void>> openEventStream(long lastEventId,
+                                                                 HttpResponse.BodyHandler<Void> handler) {
+        URI uri = resolve("/api/iot/" + getDeviceId() + "/events");
+        CompletableFuture<HttpResponse<Void>> stream = new CompletableFuture<>();
+        tokens.token().thenCompose(token -> {
+            // No request timeout, the stream is meant to stay open
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                    .header("Accept", "text/event-stream")
+                    .header("Authorization", "Bearer " + token)
+                    .GET();
+            if (lastEventId >= 0) {
+                builder.header("Last-Event-ID", Long.toString(lastEventId));
+            }
+            HttpRequest request = builder.build();
+            long start = System.nanoTime();
+            CompletableFuture<HttpResponse<Void>> exchange = transport.sendAsync(request, info -> {
+                // Time to the response headers, the stream itself stays open indefinitely
+                eventTimers.record(info.statusCode(), start);
+                if (info.statusCode() == 401) {
+                    tokens.invalidate(token);
+                }
+                return handler.apply(info);
+            });
+            // A composed future doesn't pass cancellation back, so forward it to the HttpClient by hand
+            stream.whenComplete((response, error) -> {
+                if (stream.isCancelled()) {
+                    exchange.cancel(true);
+                }
+            });
+            return exchange;
+        }).whenComplete((response, error) -> {
+            if (error != null) {
+                stream.completeExceptionally(error);
+            } else {
+                stream.complete(response);
+            }
+        });
+        return stream;
+    }
 
-        if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-            return response.getBody();
-        } else {
-            throw new RuntimeException("Failed to get current state: " + response.getStatusCode());
+    /**
+     * This function queues the put request to update the thermostat remote state. The request is written to the
+     * outbox first and delivered in order by drainOutbox, so it survives the backend being offline or a reboot. A
+     * state update still waiting in the outbox is merged into the new one, which supersedes it, so however long the
+     * backend is away only one state update is replayed.
+     * @param state The fields to update, null fields are left unchanged by the backend.
+     */
+    public synchronized void setState(CurrentState state){
+        Outbox.Entry pending = outbox.pendingState();
+        if (pending != null) {
+            state = merge(transport.fromJson(pending.payload(), CurrentState.class), state);
         }
+        outbox.append(Outbox.TYPE_STATE, transport.toJson(state));
     }
 
     /**
-     * This function will make the post request to update the thermostat remote state. This should only be called on
-     * button presses.
-     * @param state
+     * Lay a newer partial state update over an older one.
+     * @param older The older update, modified in place.
+     * @param newer The newer update, its non-null fields win.
+     * @return The merged update.
      */
-    public void setState(CurrentState state){
-        HttpEntity<CurrentState> request = new HttpEntity<>(state, authHeaders());
+    private static CurrentState merge(CurrentState older, CurrentState newer) {
+        if (newer.get_id() != null) older.set_id(newer.get_id());
+        if (newer.getName() != null) older.setName(newer.getName());
+        if (newer.getState() != null) older.setState(newer.getState());
+        if (newer.getSetTemp() != null) older.setSetTemp(newer.getSetTemp());
+        if (newer.getCurrentTemp() != null) older.setCurrentTemp(newer.getCurrentTemp());
+        if (newer.getLastChecked() != null) older.setLastChecked(newer.getLastChecked());
+        if (newer.getAuth_users() != null) older.setAuth_users(newer.getAuth_users());
+        if (newer.getVersion() != null) older.setVersion(newer.getVersion());
+        return older;
+    }
 
-        URI uri = resolve("/api/iot/" + getDeviceId());
-        ResponseEntity<CurrentState> response = restTemplate.exchange(
-                uri,
-                HttpMethod.PUT,
-                request,
-                CurrentState.class
-        );
+    /**
+     * Queue a telemetry sample for the next batch upload. This never touches the network.
+     * @param epochMillis Wall clock time of the sample in milliseconds since the epoch.
+     * @param temperature Temperature in degrees Fahrenheit.
+     * @param humidity Relative humidity in percent.
+     */
+    public void recordTelemetry(long epochMillis, double temperature, double humidity) {
+        telemetry.add(epochMillis, temperature, humidity);
+    }
+
+    /**
+     * Move queued telemetry into the outbox once a full batch is waiting or the flush interval has passed.
+     */
+    @Scheduled(fixedDelay = 1000, scheduler = SchedulingConfig.NETWORK)
+    public void flushTelemetry() {
+        int waiting = telemetry.size();
+        boolean intervalElapsed = System.nanoTime() - lastTelemetryFlush >= telemetryFlushSeconds * 1_000_000_000L;
+        if (waiting == 0 || (waiting < telemetryBatchSize && !intervalElapsed)) {
+            return;
+        }
+        lastTelemetryFlush = System.nanoTime();
+
+        TelemetryBatch batch = telemetry.peek(telemetryBatchSize);
+        outbox.append(Outbox.TYPE_TELEMETRY, transport.toJson(batch));
+        telemetry.discard(batch.size());
+    }
+
+    /**
+     * Replay the outbox in order. Delivery stops at the first failure that may go away by itself, a network error, a
+     * 5xx, 408 or 429, and picks up from the same record once the backoff has passed, so the backend always sees
+     * requests in the order they were made. A record the backend rejects for good with any other 4xx is dropped and
+     * counted, it would otherwise hold up everything queued behind it forever.
+     */
+    @Scheduled(fixedDelay = 1000, scheduler = SchedulingConfig.NETWORK)
+    public void drainOutbox() {
+        if (System.nanoTime() - retryAt < 0) {
+            return;
+        }
+        Outbox.Entry entry;
+        while ((entry = outbox.peek()) != null) {
+            int status;
+            try {
+                status = deliver(entry);
+            } catch (Exception e) {
+                // Backend unreachable, try again later
+                backOff();
+                return;
+            }
+            if (isRetryable(status)) {
+                backOff();
+                return;
+            }
+            if (status < 200 || status >= 300) {
+                System.err.println("Backend rejected outbox record " + entry.sequence() + " with " + status
+                        + ", dropping it");
+                rejected.increment();
+            }
+            outbox.remove(entry.sequence());
+            retryDelayNanos = 0;
+        }
+    }
+
+    /**
+     * Check whether a failed delivery is worth repeating unchanged.
+     * @param status The response status code.
+     * @return True for 5xx, 408 and 429, and for a 401 the fresh token didn't fix, which points at the credentials
+     *         rather than the record.
+     */
+    private static boolean isRetryable(int status) {
+        return status >= 500 || status == 408 || status == 429 || status == 401;
+    }
+
+    /**
+     * Hold off the next delivery attempt, doubling the wait after every consecutive failure.
+     */
+    private void backOff() {
+        retryDelayNanos = Math.min(Math.max(retryDelayNanos * 2, RETRY_MIN_NANOS), RETRY_MAX_NANOS);
+        retryAt = System.nanoTime() + retryDelayNanos;
+    }
+
+    /**
+     * Send a single outbox record to the backend.
+     * @param entry The record to deliver.
+     * @return The response status code, or 0 if the record can't be sent at all.
+     * @throws RuntimeException If no response arrived.
+     */
+    private int deliver(Outbox.Entry entry) {
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.ofByteArray(entry.payload());
+        Function<String, HttpRequest> request;
+        RequestTimers timers;
+        switch (entry.type()) {
+            case Outbox.TYPE_STATE -> {
+                URI uri = resolve("/api/iot/" + getDeviceId());
+                timers = stateUpdateTimers;
+                request = token -> authorized(uri, token).PUT(body).build();
+            }
+            case Outbox.TYPE_TELEMETRY -> {
+                URI uri = resolve("/api/iot/" + getDeviceId() + "/telemetry");
+                timers = telemetryTimers;
+                request = token -> authorized(uri, token).POST(body).build();
+            }
+            default -> {
+                System.err.println("Skipping outbox record of unknown type " + entry.type());
+                return 0;
+            }
+        }
+
+        return sendAuthorized(timers, request).join().statusCode();
     }
 
     /**
@@ -92,21 +424,46 @@ public class ApiService {
     }
 
     /**
-     * Create HTTP headers with authentication token.
-     * @return HttpHeaders with Bearer token if available.
+     * Send a request with a valid token. If the backend still answers 401 the token is dropped and the request is
+     * sent once more with a freshly issued one.
+     * @param timers The timers of the endpoint and method.
+     * @param request Builds the request for a given token.
+     * @return Future completed with the response, whatever its status code.
      */
-    private HttpHeaders authHeaders() {
-        HttpHeaders headers = new HttpHeaders();
-
-        // Set content type to JSON
-        headers.setContentType(MediaType.APPLICATION_JSON);
+    private CompletableFuture<HttpResponse<byte[]>> sendAuthorized(RequestTimers timers,
+                                                                   Function<String, HttpRequest> request) {
+        return tokens.token().thenCompose(token -> send(timers, request.apply(token)).thenCompose(response -> {
+            if (response.statusCode() != 401) {
+                return CompletableFuture.completedFuture(response);
+            }
+            tokens.invalidate(token);
+            unauthorizedRetries.increment();
+            return tokens.token().thenCompose(fresh -> send(timers, request.apply(fresh)));
+        }));
+    }
 
-        // Add Bearer token if available
-        if (token != null) {
-            headers.setBearerAuth(token);
-        }
+    /**
+     * Send a request and time it.
+     * @param timers The timers of the endpoint and method.
+     * @param request The request to send.
+     * @return Future completed with the response, whatever its status code.
+     */
+    private CompletableFuture<HttpResponse<byte[]>> send(RequestTimers timers, HttpRequest request) {
+        long start = System.nanoTime();
+        return transport.sendAsync(request).whenComplete((response, error) ->
+                timers.record(response == null ? 0 : response.statusCode(), start));
+    }
 
-        return headers;
+    /**
+     * Create a JSON request builder with the authentication token.
+     * @param uri The address to send the request to.
+     * @param token The token to send as a Bearer token.
+     * @return A request builder with the Bearer token set.
+     */
+    private HttpRequest.Builder authorized(URI uri, String token) {
+        return transport.request(uri)
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + token);
     }
 
     /**
@@ -145,6 +502,33 @@ public class ApiService {
         return rootAddress;
     }
 
+    /**
+     * Set the number of samples sent per telemetry upload. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param telemetryBatchSize Samples per batch.
+     */
+    public void setTelemetryBatchSize(int telemetryBatchSize) {
+        this.telemetryBatchSize = telemetryBatchSize;
+    }
+
+    /**
+     * Set the longest time samples wait before a partial batch is uploaded. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param telemetryFlushSeconds Flush interval in seconds.
+     */
+    public void setTelemetryFlushSeconds(long telemetryFlushSeconds) {
+        this.telemetryFlushSeconds = telemetryFlushSeconds;
+    }
+
+    /**
+     * Set how many samples are kept while the backend can't be reached. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param telemetryCapacity Ring buffer capacity in samples.
+     */
+    public void setTelemetryCapacity(int telemetryCapacity) {
+        this.telemetry = new TelemetryBuffer(telemetryCapacity);
+    }
+
     /**
      * Set the device ID for the API service. This is a Spring Boot
      * configuration property and will be set automatically from application properties.
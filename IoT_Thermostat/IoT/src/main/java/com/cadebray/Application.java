@@ -1,9 +1,12 @@
 package com.cadebray;
 import com.pi4j.Pi4J;
 import com.pi4j.context.Context;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.context.annotation.Profile;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
@@ -12,6 +15,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
  */
 @SpringBootApplication
 @EnableScheduling
+@ImportRuntimeHints(ThermostatRuntimeHints.class)
 public class Application {
 
     /**
@@ -24,33 +28,46 @@ public class Application {
 
     /**
      * Create and configure the Pi4J context bean.
-     * This will be used for GPIO and sensor interactions.
+     * This will be used for GPIO and sensor interactions. It is the only context in the application, plugin discovery
+     * is slow on the Pi so every peripheral shares it. The simulation profile replaces it with mock providers.
      * @return The initialized Pi4J context
      */
     @Bean
+    @Profile("!simulation")
     public Context pi4j(){
         return Pi4J.newAutoContext();
     }
 
     /**
      * Create the LCDisplay bean.
-     * This bean will handle interactions with the LCD tasks.
+     * This bean will handle interactions with the LCD tasks. If the R/W and busy sense pins are configured the display
+     * reads the busy flag, otherwise it uses calibrated datasheet timings. Only the pins are provisioned here, the
+     * LcdRenderer runs the initialization sequence on its own thread.
      * @param pi4j The Pi4J context for GPIO interactions
+     * @param rwPin GPIO address wired to the LCD R/W pin, or -1 if R/W is tied to ground
+     * @param busyPin GPIO address wired to the LCD side of D7, or -1 if not wired
      * @return The initialized LCDisplay instance
      */
     @Bean
-    public LCDisplay lcd(Context pi4j) {
-        return new LCDisplay(pi4j);
+    @Profile("!simulation")
+    public LCDisplay lcd(Context pi4j, @Value("${lcd.rwPin:-1}") int rwPin, @Value("${lcd.busyPin:-1}") int busyPin) {
+        LCDisplay lcd = new LCDisplay(pi4j, new CalibratedLcdTiming());
+        if (rwPin >= 0 && busyPin >= 0) {
+            lcd.enableBusyFlag(rwPin, busyPin);
+        }
+        return lcd;
     }
 
     /**
      * Create the AHT20 sensor bean.
      * This bean will handle interactions with the AHT20 temperature and humidity sensor.
-     * TODO: I don't think I need this as a bean, but leaving for now.
+     * Only the SensorSampler should inject this bean, it owns the I2C bus and caches readings for everyone else.
+     * @param pi4j The Pi4J context the I2C bus is opened in
      * @return The initialized AHT20 instance
      */
     @Bean
-    public AHT20 aht20() {
-        return new AHT20();
+    @Profile("!simulation")
+    public AHT20 aht20(Context pi4j) {
+        return new AHT20(pi4j);
     }
 }
\ No newline at end of file
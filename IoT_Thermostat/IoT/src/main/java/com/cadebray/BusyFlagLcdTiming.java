@@ -0,0 +1,47 @@
+package com.cadebray;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Timing strategy that reads the HD44780 busy flag over the R/W pin instead of waiting out the worst-case execution
+ * time. Falls back to the wrapped strategy for enable pulses, init delays and if the flag never clears.
+ */
+public class BusyFlagLcdTiming implements LcdTiming {
+    // Longest any command can take (clear/home, 1.52 ms) plus margin before we stop trusting the flag
+    private static final long BUSY_TIMEOUT_NS = 2_000_000;
+
+    private final LcdTiming fallback;
+    private final BooleanSupplier busyProbe;
+
+    /**
+     * Constructor for the busy flag timing strategy.
+     * @param fallback The strategy used for enable holds and when the busy flag times out.
+     * @param busyProbe Reads the busy flag, true while the controller is still executing.
+     */
+    public BusyFlagLcdTiming(LcdTiming fallback, BooleanSupplier busyProbe) {
+        this.fallback = fallback;
+        this.busyProbe = busyProbe;
+    }
+
+    @Override
+    public void enableHold() {
+        fallback.enableHold();
+    }
+
+    @Override
+    public void awaitExecution(int value, boolean data) {
+        long deadline = System.nanoTime() + BUSY_TIMEOUT_NS;
+        while (busyProbe.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                // The flag is stuck or not wired, the worst case has already passed
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public void delayNanos(long nanos) {
+        fallback.delayNanos(nanos);
+    }
+}
@@ -0,0 +1,84 @@
+package com.cadebray;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Datasheet timings for the HD44780 using parkNanos for long waits and spin waits for the short ones. On Linux
+ * parkNanos overshoots by tens of microseconds, so the overshoot is measured once at startup and the tail of every
+ * wait is spun instead of parked.
+ */
+public class CalibratedLcdTiming implements LcdTiming {
+    // Enable pulse width is 450 ns minimum and the full enable cycle is 1000 ns, so hold each level for 500 ns
+    private static final long ENABLE_HOLD_NS = 500;
+    // Most commands and data writes finish in 37-41 us, leave a little margin
+    private static final long EXECUTION_NS = 50_000;
+    // Clear display and return home take 1.52 ms
+    private static final long LONG_EXECUTION_NS = 1_640_000;
+
+    private final long parkOvershootNanos;
+
+    /**
+     * Create the timing strategy and measure how far parkNanos overshoots on this machine.
+     */
+    public CalibratedLcdTiming() {
+        this.parkOvershootNanos = calibrate();
+    }
+
+    @Override
+    public void enableHold() {
+        spinNanos(ENABLE_HOLD_NS);
+    }
+
+    @Override
+    public void awaitExecution(int value, boolean data) {
+        delayNanos(LcdTiming.isLongCommand(value, data) ? LONG_EXECUTION_NS : EXECUTION_NS);
+    }
+
+    @Override
+    public void delayNanos(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        // Only park if the wait is long enough that the overshoot can't push us past the deadline
+        if (nanos > parkOvershootNanos * 2) {
+            LockSupport.parkNanos(nanos - parkOvershootNanos);
+        }
+        while (System.nanoTime() - deadline < 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Get the measured parkNanos overshoot.
+     * @return Median overshoot in nanoseconds.
+     */
+    public long getParkOvershootNanos() {
+        return parkOvershootNanos;
+    }
+
+    /**
+     * Busy wait for a short time without giving up the CPU.
+     * @param nanos Time to wait in nanoseconds.
+     */
+    private static void spinNanos(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        while (System.nanoTime() - deadline < 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Measure the median amount parkNanos sleeps past a short request.
+     * @return Median overshoot in nanoseconds.
+     */
+    private static long calibrate() {
+        final long request = 10_000;
+        long[] samples = new long[21];
+        for (int i = 0; i < samples.length; i++) {
+            long start = System.nanoTime();
+            LockSupport.parkNanos(request);
+            samples[i] = Math.max(0, System.nanoTime() - start - request);
+        }
+        Arrays.sort(samples);
+        return samples[samples.length / 2];
+    }
+}
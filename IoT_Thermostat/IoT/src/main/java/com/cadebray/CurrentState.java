@@ -23,6 +23,9 @@ public class CurrentState {
     @JsonProperty("auth_users")
     private String[] auth_users;
 
+    @JsonProperty("version")
+    private Long version;
+
     public CurrentState(){}
 
     public String get_id() {
@@ -80,4 +83,12 @@ public class CurrentState {
     public void setAuth_users(String[] auth_users) {
         this.auth_users = auth_users;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
@@ -0,0 +1,40 @@
+package com.cadebray;
+
+import com.pi4j.context.Context;
+import com.pi4j.io.gpio.digital.DigitalOutput;
+import com.pi4j.io.gpio.digital.DigitalState;
+
+/**
+ * LED on a plain GPIO output. It can only be switched on and off, so a pulse is timed by the control thread.
+ */
+public class DigitalLed implements LedOutput {
+    private final DigitalOutput output;
+
+    /**
+     * Constructor for a digital LED.
+     * @param output The provisioned GPIO output the LED is wired to.
+     */
+    public DigitalLed(DigitalOutput output) {
+        this.output = output;
+    }
+
+    @Override
+    public void level(int dutyCycle) {
+        output.state(dutyCycle > 0 ? DigitalState.HIGH : DigitalState.LOW);
+    }
+
+    @Override
+    public boolean blink(int frequency) {
+        return false;
+    }
+
+    @Override
+    public boolean isDimmable() {
+        return false;
+    }
+
+    @Override
+    public void shutdown(Context pi4j) {
+        output.shutdown(pi4j);
+    }
+}
@@ -3,6 +3,8 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.context.event.EventListener;
+import java.time.Duration;
 
 /**
  * Service to manage the LCD updates based on the thermostat state and temperature readings.
@@ -10,23 +12,23 @@ import org.springframework.beans.factory.ObjectFactory;
 @Service
 public class DisplayService {
     private final ObjectFactory<StateMachine<States, Events>> stateMachineFactory;
-    private final LCDisplay lcd;
-    private final AHT20 aht20;
+    private final LcdRenderer renderer;
+    private final SensorSampler sensorSampler;
     private final ThermostatProperties thermostatProperties;
-    private int counter = 0;
+    private volatile int counter = 0;
 
     /**
      * Constructor for DisplayService. This service updates the LCD based on the current state and temperature readings.
      * @param stateMachineFactory This is the factory to create StateMachine instances
-     * @param lcd This is the LCDisplay instance for the LCD
-     * @param aht20 This is the AHT20 temperature and humidity sensor instance
+     * @param renderer This is the renderer that owns the LCD and draws submitted frames
+     * @param sensorSampler This is the sampler holding the latest AHT20 reading
      */
     public DisplayService(ObjectFactory<StateMachine<States, Events>> stateMachineFactory,
-                          LCDisplay lcd,
-                          AHT20 aht20, ThermostatProperties thermostatProperties) {
+                          LcdRenderer renderer,
+                          SensorSampler sensorSampler, ThermostatProperties thermostatProperties) {
         this.stateMachineFactory = stateMachineFactory;
-        this.lcd = lcd;
-        this.aht20 = aht20;
+        this.renderer = renderer;
+        this.sensorSampler = sensorSampler;
         this.thermostatProperties = thermostatProperties;
     }
 
@@ -37,21 +39,43 @@ public class DisplayService {
     /**
      * Scheduled method to update the LCD every second.
      */
-    @Scheduled(fixedDelay = 1000)
+    @Scheduled(fixedDelay = 1000, scheduler = SchedulingConfig.UI)
     public void tick(){
+        // tick and alternate display every 10 seconds
+        counter = (counter + 1) & Integer.MAX_VALUE;
+        refresh();
+    }
+
+    /**
+     * Redraw as soon as the setpoint changes instead of waiting for the next tick.
+     * @param setpoint The new setpoint published by ThermostatProperties
+     */
+    @EventListener
+    public void onSetpointChanged(Double setpoint) {
+        refresh();
+    }
+
+    /**
+     * Compose a frame from the current state and hand it to the renderer. This never touches GPIO so it is safe to
+     * call from the scheduler, event listeners and state machine transitions.
+     */
+    public void refresh(){
         StateMachine<States, Events> stateMachine = getStateMachine();
         if (stateMachine.getState() == null) {
             // State machine not initialized yet
             return;
         }
 
+        if (sensorSampler.isWaitingForFirstSample()) {
+            // Leave the boot frame up until there is something to show, instead of flashing a sensor error
+            return;
+        }
+
         double temperature;
         try{
-            temperature = aht20.readSensor()[1];
+            temperature = sensorSampler.getLatest(Duration.ofSeconds(5)).getFahrenheit();
         } catch (Exception e){
-            lcd.clear();
-            lcd.setCursor(0, 0);
-            lcd.print("Sensor Error");
+            renderer.submit("Sensor Error", "");
             return;
         }
 
@@ -64,13 +88,8 @@ public class DisplayService {
             // Ignore, will show as NaN
         }
 
-        // tick and alternate display every 10 seconds
-        counter = (counter + 1) & Integer.MAX_VALUE;
         boolean showTemperature = ((counter / 10) % 2) == 0;
 
-        lcd.clear();
-        lcd.setCursor(0, 0);
-
         String timeStr = java.time.LocalTime.now().withNano(0).toString();
         String stateStr = switch (currentState) {
             case OFF -> "OFF";
@@ -86,7 +105,7 @@ public class DisplayService {
             line2 = !Double.isNaN(setpoint) ? String.format("Set Temp:  %.1fF", setpoint) : "Set:  --F";
         }
 
-        // Print both lines to the LCD
-        lcd.print(line1 + "\n" + line2);
+        // Hand both lines to the render thread, only the cells that changed since the last frame are written
+        renderer.submit(line1, line2);
     }
 }
@@ -1,10 +1,12 @@
 package com.cadebray;
 
 /**
- * This is a physical button event enumeration.
+ * This is the state machine event enumeration. The BUTTON_ events come from the physical buttons, SET_MODE moves
+ * straight to the state in the message's target state header and is used to apply a remote mode.
  */
 public enum Events {
     BUTTON_CYCLE,
     BUTTON_RAISE,
-    BUTTON_LOWER
+    BUTTON_LOWER,
+    SET_MODE
 }
@@ -0,0 +1,36 @@
+package com.cadebray;
+
+/**
+ * This record is a sensor sample after the SensorFilter has rejected spikes and smoothed out noise. It is published
+ * right after the raw SensorReadEvent it was computed from, for consumers that act on the trend rather than on every
+ * sample.
+ * @param fahrenheit Filtered temperature in degrees Fahrenheit.
+ * @param humidity Filtered relative humidity in percent.
+ * @param raw The raw sample that produced this value.
+ */
+public record FilteredSensorEvent(double fahrenheit, double humidity, SensorReadEvent raw) {
+
+    /**
+     * Get the filtered Fahrenheit value.
+     * @return double value representing the filtered Fahrenheit reading
+     */
+    public double getFahrenheit() {
+        return fahrenheit;
+    }
+
+    /**
+     * Get the filtered humidity value.
+     * @return double value representing the filtered percentage of humidity.
+     */
+    public double getHumidity() {
+        return humidity;
+    }
+
+    /**
+     * Get how long ago the underlying sample was taken.
+     * @return Age of the sample in nanoseconds.
+     */
+    public long ageNanos() {
+        return raw.ageNanos();
+    }
+}
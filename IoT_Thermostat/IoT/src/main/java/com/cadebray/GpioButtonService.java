@@ -7,11 +7,14 @@ import com.pi4j.io.gpio.digital.PullResistance;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Component that manages GPIO buttons and sends events to the state machine
@@ -20,21 +23,27 @@ import reactor.core.publisher.Mono;
 @Component
 public class GpioButtonService {
     private final Context pi4j;
-    private DigitalInput cycleButton;
-    private DigitalInput raiseButton;
-    private DigitalInput lowerButton;
-    private DigitalStateChangeListener buttonListener;
+    // Provisioned on the bootstrap executor
+    private volatile DigitalInput cycleButton;
+    private volatile DigitalInput raiseButton;
+    private volatile DigitalInput lowerButton;
+    private volatile DigitalStateChangeListener buttonListener;
     private final ObjectFactory<StateMachine<States, Events>> stateMachineFactory;
+    private final AsyncTaskExecutor bootstrap;
+    private CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
 
     /**
      * Constructor for GpioButtonServiceComponent. This component manages GPIO buttons
      * and sends events to the state machine when buttons are pressed.
      * @param pi4j The Pi4J context for GPIO interactions
      * @param stateMachine The state machine to send events to
+     * @param bootstrap Executor the button inputs are provisioned on
      */
-    public GpioButtonService(Context pi4j, ObjectFactory<StateMachine<States, Events>> stateMachine) {
+    public GpioButtonService(Context pi4j, ObjectFactory<StateMachine<States, Events>> stateMachine,
+                             @Qualifier(SchedulingConfig.BOOTSTRAP) AsyncTaskExecutor bootstrap) {
         this.pi4j = pi4j;
         stateMachineFactory = stateMachine;
+        this.bootstrap = bootstrap;
     }
 
     /**
@@ -46,12 +55,23 @@ public class GpioButtonService {
     }
 
     /**
-     * Initialize the GPIO buttons and register listeners.
+     * Start provisioning the GPIO buttons on the bootstrap executor.
      * Uses the PostConstruct annotation to ensure this method is called after
-     * the component is constructed.
+     * the component is constructed. The rest of the context keeps loading while the inputs are exported.
      */
     @PostConstruct
     public void initialize(){
+        ready = bootstrap.submitCompletable(this::provision).whenComplete((ignored, error) -> {
+            if (error != null) {
+                System.err.println("Error provisioning buttons: " + error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Create the GPIO buttons and register listeners.
+     */
+    private void provision(){
         // Create digital inputs for each button on their addressed GPIO pins
         cycleButton = createInput("button-cycle", 24);
         raiseButton = createInput("button-raise", 25);
@@ -76,7 +96,9 @@ public class GpioButtonService {
             }
 
             // Build and send the event to the state machine. Uses msg and Mono for reactive handling.
-            Message<Events> msg = MessageBuilder.withPayload(payload).build();
+            Message<Events> msg = MessageBuilder.withPayload(payload)
+                    .setHeader(StateMachineConfig.SENT_AT_HEADER, System.nanoTime())
+                    .build();
 
             getStateMachine().sendEvent(Mono.just(msg)).subscribe(
                     null,
@@ -90,6 +112,14 @@ public class GpioButtonService {
         lowerButton.addListener(buttonListener);
     }
 
+    /**
+     * Get the provisioning of the buttons started at startup.
+     * @return A future that completes once the inputs exist and their listener is registered
+     */
+    public CompletableFuture<Void> ready() {
+        return ready;
+    }
+
     /**
      * Create a digital input pin with pull-up resistor and debounce
      * @param id This is the unique identifier for the pin
@@ -114,6 +144,8 @@ public class GpioButtonService {
      */
     @PreDestroy
     public void shutdown(){
+        // Let provisioning finish so no input is created after it would have been released
+        ready.handle((ignored, error) -> null).join();
         try {
             if (buttonListener != null) {
                 // The buttonListener may be null if initialization failed
@@ -0,0 +1,74 @@
+package com.cadebray;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the device's own sensor history so trends can be shown without asking the backend. Times are milliseconds
+ * since the epoch, the same as the telemetry batches. Summaries come from the in-memory history, individual samples
+ * from the sensor log.
+ */
+@RestController
+public class HistoryController {
+    private static final int MAX_SAMPLES = 86_400;
+
+    private final SensorHistory history;
+    private final SensorLog log;
+
+    /**
+     * Constructor for HistoryController.
+     * @param history The in-memory sensor history.
+     * @param log The on-disk sensor log.
+     */
+    public HistoryController(SensorHistory history, SensorLog log) {
+        this.history = history;
+        this.log = log;
+    }
+
+    /**
+     * Get a range of the sensor history, e.g. {@code GET /history?from=1760680800000&resolution=60}.
+     * @param from Start of the range, defaults to an hour before the end.
+     * @param to End of the range, defaults to now.
+     * @param resolution Bucket width in seconds (1, 60 or 900). Defaults to the finest that reaches back to from.
+     * @return The buckets in the range with the min, max and mean of each.
+     */
+    @GetMapping("/history")
+    public HistoryRange getHistory(@RequestParam(required = false) Long from,
+                                   @RequestParam(required = false) Long to,
+                                   @RequestParam(required = false) Long resolution) {
+        long end = to != null ? to : System.currentTimeMillis();
+        long start = from != null ? from : end - TimeUnit.HOURS.toMillis(1);
+        if (start > end) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must not be after to");
+        }
+        if (resolution == null) {
+            return history.query(start, end);
+        }
+        try {
+            return history.query(start, end, resolution);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Get the individual samples in a range from the sensor log, e.g. {@code GET /history/raw?from=1760680800000}.
+     * @param from Start of the range, defaults to ten minutes before the end.
+     * @param to End of the range, defaults to now.
+     * @return The samples, at most a day's worth at one per second, oldest first.
+     */
+    @GetMapping("/history/raw")
+    public TelemetryBatch getRawHistory(@RequestParam(required = false) Long from,
+                                        @RequestParam(required = false) Long to) {
+        long end = to != null ? to : System.currentTimeMillis();
+        long start = from != null ? from : end - TimeUnit.MINUTES.toMillis(10);
+        if (start > end) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must not be after to");
+        }
+        return log.read(start, end, MAX_SAMPLES);
+    }
+}
@@ -0,0 +1,122 @@
+package com.cadebray;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This is a range of the sensor history returned by the history API. Buckets are stored column-wise like a
+ * TelemetryBatch so the response stays small, and each bucket carries the min, max and mean of the samples in it.
+ */
+public class HistoryRange {
+    @JsonProperty("resolution")
+    private long resolution;
+
+    @JsonProperty("t")
+    private long[] t;
+
+    @JsonProperty("samples")
+    private int[] samples;
+
+    @JsonProperty("tempMin")
+    private double[] tempMin;
+
+    @JsonProperty("tempMax")
+    private double[] tempMax;
+
+    @JsonProperty("temp")
+    private double[] temp;
+
+    @JsonProperty("humidityMin")
+    private double[] humidityMin;
+
+    @JsonProperty("humidityMax")
+    private double[] humidityMax;
+
+    @JsonProperty("humidity")
+    private double[] humidity;
+
+    public HistoryRange(){}
+
+    /**
+     * Create an empty range to be filled with set.
+     * @param resolution Width of each bucket in seconds.
+     * @param size Number of buckets.
+     */
+    public HistoryRange(long resolution, int size) {
+        this.resolution = resolution;
+        this.t = new long[size];
+        this.samples = new int[size];
+        this.tempMin = new double[size];
+        this.tempMax = new double[size];
+        this.temp = new double[size];
+        this.humidityMin = new double[size];
+        this.humidityMax = new double[size];
+        this.humidity = new double[size];
+    }
+
+    /**
+     * Fill in one bucket.
+     * @param i Index of the bucket.
+     * @param epochMillis Start of the bucket in milliseconds since the epoch.
+     * @param count Number of samples in the bucket.
+     * @param tempMin Lowest temperature in degrees Fahrenheit.
+     * @param tempMax Highest temperature in degrees Fahrenheit.
+     * @param tempMean Mean temperature in degrees Fahrenheit.
+     * @param humidityMin Lowest relative humidity in percent.
+     * @param humidityMax Highest relative humidity in percent.
+     * @param humidityMean Mean relative humidity in percent.
+     */
+    void set(int i, long epochMillis, int count, double tempMin, double tempMax, double tempMean,
+             double humidityMin, double humidityMax, double humidityMean) {
+        this.t[i] = epochMillis;
+        this.samples[i] = count;
+        this.tempMin[i] = tempMin;
+        this.tempMax[i] = tempMax;
+        this.temp[i] = tempMean;
+        this.humidityMin[i] = humidityMin;
+        this.humidityMax[i] = humidityMax;
+        this.humidity[i] = humidityMean;
+    }
+
+    public long getResolution() {
+        return resolution;
+    }
+
+    public long[] getT() {
+        return t;
+    }
+
+    public int[] getSamples() {
+        return samples;
+    }
+
+    public double[] getTempMin() {
+        return tempMin;
+    }
+
+    public double[] getTempMax() {
+        return tempMax;
+    }
+
+    public double[] getTemp() {
+        return temp;
+    }
+
+    public double[] getHumidityMin() {
+        return humidityMin;
+    }
+
+    public double[] getHumidityMax() {
+        return humidityMax;
+    }
+
+    public double[] getHumidity() {
+        return humidity;
+    }
+
+    /**
+     * Get the number of buckets in this range.
+     * @return Bucket count.
+     */
+    public int size() {
+        return t == null ? 0 : t.length;
+    }
+}
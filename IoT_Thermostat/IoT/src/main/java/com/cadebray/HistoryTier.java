@@ -0,0 +1,154 @@
+package com.cadebray;
+
+import java.util.Arrays;
+
+/**
+ * One resolution of the sensor history: a fixed ring of time buckets stored in primitive arrays. Every sample is folded
+ * straight into the bucket for its time as a running min, max and sum, so downsampling happens as samples arrive and
+ * nothing is allocated per sample. A bucket is reused once the ring wraps around to it, which drops the oldest one.
+ */
+public class HistoryTier {
+    private final long resolutionMillis;
+    // Bucket number (epoch millis / resolution) held in each slot, -1 while the slot is empty
+    private final long[] buckets;
+    private final int[] counts;
+    private final double[] temperatureMin;
+    private final double[] temperatureMax;
+    private final double[] temperatureSum;
+    private final double[] humidityMin;
+    private final double[] humidityMax;
+    private final double[] humiditySum;
+    private long newest = -1;
+
+    /**
+     * Constructor for a history tier.
+     * @param resolutionMillis Width of each bucket in milliseconds.
+     * @param capacity Number of buckets kept, the tier covers resolution times capacity.
+     */
+    public HistoryTier(long resolutionMillis, int capacity) {
+        if (resolutionMillis <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("History tier resolution and capacity must be positive: "
+                    + resolutionMillis + " ms x " + capacity);
+        }
+        this.resolutionMillis = resolutionMillis;
+        this.buckets = new long[capacity];
+        this.counts = new int[capacity];
+        this.temperatureMin = new double[capacity];
+        this.temperatureMax = new double[capacity];
+        this.temperatureSum = new double[capacity];
+        this.humidityMin = new double[capacity];
+        this.humidityMax = new double[capacity];
+        this.humiditySum = new double[capacity];
+        Arrays.fill(buckets, -1);
+    }
+
+    /**
+     * Fold a sample into the bucket for its time.
+     * @param epochMillis Wall clock time of the sample in milliseconds since the epoch.
+     * @param temperature Temperature in degrees Fahrenheit.
+     * @param humidity Relative humidity in percent.
+     */
+    public synchronized void add(long epochMillis, double temperature, double humidity) {
+        long bucket = Math.floorDiv(epochMillis, resolutionMillis);
+        int capacity = buckets.length;
+        if (bucket <= newest - capacity) {
+            // The clock went back further than this tier reaches, which happens when the Pi has no RTC and NTP
+            // corrects it. The newer buckets would hide the new samples for the whole window, so start over.
+            Arrays.fill(buckets, -1);
+            newest = -1;
+        }
+
+        int slot = (int) Math.floorMod(bucket, (long) capacity);
+        if (buckets[slot] != bucket) {
+            if (buckets[slot] > bucket) {
+                return; // Late sample for a bucket that has already been reused
+            }
+            buckets[slot] = bucket;
+            counts[slot] = 0;
+            temperatureMin[slot] = temperature;
+            temperatureMax[slot] = temperature;
+            temperatureSum[slot] = 0;
+            humidityMin[slot] = humidity;
+            humidityMax[slot] = humidity;
+            humiditySum[slot] = 0;
+        }
+        counts[slot]++;
+        temperatureMin[slot] = Math.min(temperatureMin[slot], temperature);
+        temperatureMax[slot] = Math.max(temperatureMax[slot], temperature);
+        temperatureSum[slot] += temperature;
+        humidityMin[slot] = Math.min(humidityMin[slot], humidity);
+        humidityMax[slot] = Math.max(humidityMax[slot], humidity);
+        humiditySum[slot] += humidity;
+        newest = Math.max(newest, bucket);
+    }
+
+    /**
+     * Fold in a sample restored from the sensor log. Unlike add, a sample older than the tier reaches is dropped
+     * instead of treated as the clock going back, since live samples may already have arrived.
+     * @param epochMillis Wall clock time of the sample in milliseconds since the epoch.
+     * @param temperature Temperature in degrees Fahrenheit.
+     * @param humidity Relative humidity in percent.
+     */
+    public synchronized void restore(long epochMillis, double temperature, double humidity) {
+        if (newest >= 0 && Math.floorDiv(epochMillis, resolutionMillis) <= newest - buckets.length) {
+            return;
+        }
+        add(epochMillis, temperature, humidity);
+    }
+
+    /**
+     * Copy the buckets that overlap a time range, oldest first. Buckets with no samples are left out.
+     * @param fromMillis Start of the range in milliseconds since the epoch, inclusive.
+     * @param toMillis End of the range in milliseconds since the epoch, inclusive.
+     * @return The buckets in the range.
+     */
+    public synchronized HistoryRange query(long fromMillis, long toMillis) {
+        if (newest < 0) {
+            return new HistoryRange(resolutionMillis / 1000, 0);
+        }
+        int capacity = buckets.length;
+        long first = Math.max(Math.floorDiv(fromMillis, resolutionMillis), newest - capacity + 1);
+        long last = Math.min(Math.floorDiv(toMillis, resolutionMillis), newest);
+
+        // Count first so the columns are allocated once at their final size
+        int size = 0;
+        for (long bucket = first; bucket <= last; bucket++) {
+            if (buckets[(int) Math.floorMod(bucket, (long) capacity)] == bucket) size++;
+        }
+
+        HistoryRange range = new HistoryRange(resolutionMillis / 1000, size);
+        int i = 0;
+        for (long bucket = first; bucket <= last; bucket++) {
+            int slot = (int) Math.floorMod(bucket, (long) capacity);
+            if (buckets[slot] != bucket) continue;
+            range.set(i++, bucket * resolutionMillis, counts[slot],
+                    temperatureMin[slot], temperatureMax[slot], temperatureSum[slot] / counts[slot],
+                    humidityMin[slot], humidityMax[slot], humiditySum[slot] / counts[slot]);
+        }
+        return range;
+    }
+
+    /**
+     * Get the width of each bucket.
+     * @return Resolution in milliseconds.
+     */
+    public long getResolutionMillis() {
+        return resolutionMillis;
+    }
+
+    /**
+     * Get how far back this tier reaches.
+     * @return Resolution times capacity, in milliseconds.
+     */
+    public long getRetentionMillis() {
+        return resolutionMillis * buckets.length;
+    }
+
+    /**
+     * Get the memory held by the bucket arrays.
+     * @return Size of the arrays in bytes, excluding object headers.
+     */
+    public long getFootprintBytes() {
+        return (long) buckets.length * (Long.BYTES + Integer.BYTES + 6 * Double.BYTES);
+    }
+}
@@ -0,0 +1,136 @@
+package com.cadebray;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * HTTP transport for talking to the backend, built on the JDK HttpClient. A single long-lived client is shared by
+ * every request so connections are kept alive and reused, HTTP/2 is negotiated where the server supports it, and all
+ * calls are available asynchronously.
+ */
+@Component
+@ConfigurationProperties(prefix = "api.transport")
+public class HttpTransport {
+    // The backend adds fields over time, ignore the ones the device doesn't know about
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    private Duration requestTimeout = Duration.ofSeconds(10);
+    private HttpClient client;
+
+    /**
+     * Build the shared client. Uses @PostConstruct so the configured timeouts are bound first.
+     */
+    @PostConstruct
+    public void initialize() {
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * Start a request builder for the given address with the configured request timeout applied.
+     * @param uri The address to send the request to.
+     * @return A request builder.
+     */
+    public HttpRequest.Builder request(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(requestTimeout);
+    }
+
+    /**
+     * Send a request without blocking the caller.
+     * @param request The request to send.
+     * @return Future completed with the response, whatever its status code.
+     */
+    public CompletableFuture<HttpResponse<byte[]>> sendAsync(HttpRequest request) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Send a request without blocking the caller, handling the body with the given handler. Used for streaming
+     * responses that should not be buffered into memory.
+     * @param request The request to send.
+     * @param handler Decides how the body is consumed once the status and headers are known.
+     * @return Future completed with the response once the body handler completes.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return client.sendAsync(request, handler);
+    }
+
+    /**
+     * Send a request and wait for the response.
+     * @param request The request to send.
+     * @return The response, whatever its status code.
+     * @throws UncheckedIOException If the request could not be sent or timed out.
+     */
+    public HttpResponse<byte[]> send(HttpRequest request) {
+        try {
+            return sendAsync(request).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw new UncheckedIOException(io);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Serialize a request body to JSON.
+     * @param body The object to serialize.
+     * @return The UTF-8 JSON bytes.
+     */
+    public byte[] toJson(Object body) {
+        try {
+            return objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to serialize request body", e);
+        }
+    }
+
+    /**
+     * Deserialize a JSON response body.
+     * @param body The UTF-8 JSON bytes.
+     * @param type The class to read the body into.
+     * @return The deserialized object.
+     */
+    public <T> T fromJson(byte[] body, Class<T> type) {
+        try {
+            return objectMapper.readValue(body, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to parse response body as " + type.getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Set the TCP connect timeout. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param connectTimeout The connect timeout.
+     */
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Set the timeout for a complete request. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param requestTimeout The request timeout.
+     */
+    public void setRequestTimeout(Duration requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+}
@@ -0,0 +1,302 @@
+package com.cadebray;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.scheduling.SchedulingAwareRunnable;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.FixedDelayTask;
+import org.springframework.scheduling.config.FixedRateTask;
+import org.springframework.scheduling.config.IntervalTask;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps every fixed delay and fixed rate @Scheduled job to record how late each run started, how long it took and how
+ * often it overran its deadline. A job's deadline is its interval, but never less than the minimum deadline. A
+ * watchdog on its own thread flags a job that is still running past its deadline while it is stuck, without waiting
+ * for it to finish and without touching the lane it runs on.
+ */
+@Component
+@ConfigurationProperties(prefix = "scheduling.monitor")
+public class JobMonitor implements SchedulingConfigurer {
+    private final List<Job> jobs = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService watchdog;
+    private final MeterRegistry registry;
+    private Duration minDeadline = Duration.ofMillis(500);
+    private Duration watchdogPeriod = Duration.ofSeconds(1);
+
+    /**
+     * Constructor for the job monitor.
+     * @param registry The registry the per job lag, runtime and overruns are reported to.
+     */
+    public JobMonitor(MeterRegistry registry) {
+        this.registry = registry;
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "job-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start the watchdog. Uses @PostConstruct so the configuration properties are bound first.
+     */
+    @PostConstruct
+    public void start() {
+        long period = watchdogPeriod.toMillis();
+        watchdog.scheduleWithFixedDelay(this::checkDeadlines, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the watchdog. Uses @PreDestroy so the thread is released on shutdown.
+     */
+    @PreDestroy
+    public void stop() {
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Wrap the registered interval jobs before they are scheduled. Cron and trigger jobs are left as they are.
+     * @param registrar The registrar holding the @Scheduled jobs
+     */
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        List<IntervalTask> fixedDelay = new ArrayList<>();
+        for (IntervalTask task : registrar.getFixedDelayTaskList()) {
+            Job job = register(task, false);
+            fixedDelay.add(new FixedDelayTask(job, task.getIntervalDuration(), task.getInitialDelayDuration()));
+        }
+        registrar.setFixedDelayTasksList(fixedDelay);
+
+        List<IntervalTask> fixedRate = new ArrayList<>();
+        for (IntervalTask task : registrar.getFixedRateTaskList()) {
+            Job job = register(task, true);
+            fixedRate.add(new FixedRateTask(job, task.getIntervalDuration(), task.getInitialDelayDuration()));
+        }
+        registrar.setFixedRateTasksList(fixedRate);
+    }
+
+    /**
+     * Get every monitored job.
+     * @return The monitored jobs, in registration order.
+     */
+    public List<Job> getJobs() {
+        return List.copyOf(jobs);
+    }
+
+    /**
+     * Create and track the wrapper for a job.
+     * @param task The job as registered by Spring
+     * @param fixedRate True if runs are spaced from start to start rather than end to start
+     * @return The wrapper to schedule in its place
+     */
+    private Job register(IntervalTask task, boolean fixedRate) {
+        long deadline = Math.max(task.getIntervalDuration().toNanos(), minDeadline.toNanos());
+        Job job = new Job(task.getRunnable(), task.getIntervalDuration().toNanos(), deadline, fixedRate);
+
+        Tags tags = Tags.of("job", job.getName(), "lane", job.getQualifier() == null ? "default" : job.getQualifier());
+        job.lag = Timer.builder("thermostat.scheduler.lag")
+                .description("How late a scheduled job started compared to its schedule")
+                .tags(tags)
+                .register(registry);
+        job.runtime = Timer.builder("thermostat.scheduler.runtime")
+                .description("How long a scheduled job ran")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("thermostat.scheduler.overruns", job, Job::getOverruns)
+                .description("Runs of a scheduled job that took longer than its deadline")
+                .tags(tags)
+                .register(registry);
+
+        jobs.add(job);
+        return job;
+    }
+
+    /**
+     * Flag jobs that are still running past their deadline. Runs on the watchdog thread.
+     */
+    private void checkDeadlines() {
+        long now = System.nanoTime();
+        for (Job job : jobs) {
+            job.checkDeadline(now);
+        }
+    }
+
+    /**
+     * A monitored job. Stats are written by the lane thread running the job and read by anyone, each field is
+     * individually consistent.
+     */
+    public static class Job implements SchedulingAwareRunnable {
+        private final Runnable delegate;
+        private final String name;
+        private final long intervalNanos;
+        private final long deadlineNanos;
+        private final boolean fixedRate;
+        private Timer lag;
+        private Timer runtime;
+
+        private volatile long startedAt = 0; // 0 while idle
+        private volatile boolean flagged = false;
+        private long lastStart = 0;
+        private long lastEnd = 0;
+        private volatile long runs = 0;
+        private volatile long overruns = 0;
+        private volatile long lastRuntimeNanos = 0;
+        private volatile long maxRuntimeNanos = 0;
+        private volatile long totalRuntimeNanos = 0;
+        private volatile long lastLatenessNanos = 0;
+        private volatile long maxLatenessNanos = 0;
+
+        Job(Runnable delegate, long intervalNanos, long deadlineNanos, boolean fixedRate) {
+            this.delegate = delegate;
+            this.name = shortName(delegate.toString());
+            this.intervalNanos = intervalNanos;
+            this.deadlineNanos = deadlineNanos;
+            this.fixedRate = fixedRate;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            if (lastStart != 0) {
+                // When the run should have started, measured from the previous run
+                long due = (fixedRate ? lastStart : lastEnd) + intervalNanos;
+                lastLatenessNanos = Math.max(0, start - due);
+                maxLatenessNanos = Math.max(maxLatenessNanos, lastLatenessNanos);
+                lag.record(lastLatenessNanos, TimeUnit.NANOSECONDS);
+            }
+            lastStart = start;
+            startedAt = start;
+            try {
+                delegate.run();
+            } finally {
+                long end = System.nanoTime();
+                long elapsed = end - start;
+                runtime.record(elapsed, TimeUnit.NANOSECONDS);
+                lastEnd = end;
+                startedAt = 0;
+                runs++;
+                lastRuntimeNanos = elapsed;
+                totalRuntimeNanos += elapsed;
+                maxRuntimeNanos = Math.max(maxRuntimeNanos, elapsed);
+                if (elapsed > deadlineNanos) {
+                    overruns++;
+                    if (!flagged) {
+                        System.err.println("Job " + name + " overran its deadline: " + elapsed / 1_000_000 + " ms");
+                    }
+                }
+                flagged = false;
+            }
+        }
+
+        /**
+         * Flag the job once per run if it is still running past its deadline.
+         * @param now The current monotonic time
+         */
+        void checkDeadline(long now) {
+            long started = startedAt;
+            if (started != 0 && !flagged && now - started > deadlineNanos) {
+                flagged = true;
+                System.err.println("Job " + name + " has been running for " + (now - started) / 1_000_000
+                        + " ms, over its deadline of " + deadlineNanos / 1_000_000 + " ms, in lane "
+                        + (getQualifier() == null ? "default" : getQualifier()));
+            }
+        }
+
+        @Override
+        public String getQualifier() {
+            return delegate instanceof SchedulingAwareRunnable aware ? aware.getQualifier() : null;
+        }
+
+        @Override
+        public boolean isLongLived() {
+            return delegate instanceof SchedulingAwareRunnable aware && aware.isLongLived();
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+
+        /**
+         * Turn a fully qualified method name into Class.method.
+         * @param qualified The delegate's description
+         * @return The short name
+         */
+        private static String shortName(String qualified) {
+            int method = qualified.lastIndexOf('.');
+            int type = method > 0 ? qualified.lastIndexOf('.', method - 1) : -1;
+            return type >= 0 ? qualified.substring(type + 1) : qualified;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isRunning() {
+            return startedAt != 0;
+        }
+
+        public long getRuns() {
+            return runs;
+        }
+
+        public long getOverruns() {
+            return overruns;
+        }
+
+        public long getLastRuntimeNanos() {
+            return lastRuntimeNanos;
+        }
+
+        public long getMaxRuntimeNanos() {
+            return maxRuntimeNanos;
+        }
+
+        public long getTotalRuntimeNanos() {
+            return totalRuntimeNanos;
+        }
+
+        public long getLastLatenessNanos() {
+            return lastLatenessNanos;
+        }
+
+        public long getMaxLatenessNanos() {
+            return maxLatenessNanos;
+        }
+
+        public long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+    }
+
+    /**
+     * Set the shortest deadline a job can have, so very frequent jobs aren't flagged for ordinary jitter. This is a
+     * Spring Boot configuration property and will be set automatically from application properties.
+     * @param minDeadline The minimum deadline.
+     */
+    public void setMinDeadline(Duration minDeadline) {
+        this.minDeadline = minDeadline;
+    }
+
+    /**
+     * Set how often the watchdog looks for stuck jobs. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param watchdogPeriod The watchdog period.
+     */
+    public void setWatchdogPeriod(Duration watchdogPeriod) {
+        this.watchdogPeriod = watchdogPeriod;
+    }
+}
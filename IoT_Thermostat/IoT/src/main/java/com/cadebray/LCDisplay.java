@@ -1,10 +1,13 @@
 package com.cadebray;
 import com.pi4j.context.Context;
+import com.pi4j.io.gpio.digital.DigitalInput;
+import com.pi4j.io.gpio.digital.DigitalInputConfig;
 import com.pi4j.io.gpio.digital.DigitalOutput;
 import com.pi4j.io.gpio.digital.DigitalOutputConfig;
 import com.pi4j.io.gpio.digital.DigitalOutputConfigBuilder;
 import com.pi4j.io.gpio.digital.DigitalState;
-import static java.lang.Thread.sleep;
+import com.pi4j.io.gpio.digital.PullResistance;
+import java.util.Arrays;
 
 public class LCDisplay {
     private final Context pi4j;
@@ -14,30 +17,38 @@ public class LCDisplay {
     private final DigitalOutput pinD5;
     private final DigitalOutput pinD6;
     private final DigitalOutput pinD7;
+    private DigitalOutput pinRW;
+    private DigitalInput pinBusy;
+    private LcdTiming timing;
     private final int columns =16;
     private final int rows = 2;
 
+    // Shadow copy of what the controller's DDRAM currently shows, one byte per visible cell
+    private final byte[] shadow = new byte[columns * rows];
+    // Row-major target cells for the frame being committed, reused between frames
+    private final byte[] target = new byte[columns * rows];
+    // Model of the controller's DDRAM address counter, -1 when it is unknown
+    private int cursor = -1;
+    private long lastFrameBytes = 0;
+    private long totalBytesWritten = 0;
+
     /**
      * Default configuration for LCD.
      * Uses GPIO pins RS=17, E=27, D4=5, D5=6, D6=13, D7=26
      * @param pi4j Pi4J Context object, created via Pi4J.newAutoContext()
      */
     public LCDisplay(Context pi4j) {
-        this.pi4j = pi4j;
-        this.pinRS = createOutput("lcd-rs", "LCD RS", 17);
-        this.pinE = createOutput("lcd-e", "LCD E", 27);
-        this.pinD4 = createOutput("lcd-d4", "LCD D4", 5);
-        this.pinD5 = createOutput("lcd-d5", "LCD D5", 6);
-        this.pinD6 = createOutput("lcd-d6", "LCD D6", 13);
-        this.pinD7 = createOutput("lcd-d7", "LCD D7", 26);
-
-        // Initialize the LCD (4-bit mode)
-        writeCommand(0x33); // Initialize
-        writeCommand(0x32); // Set to 4-bit mode
-        writeCommand(0x28); // 2 line, 5x8 matrix
-        writeCommand(0x0C); // Display on, cursor off
-        writeCommand(0x06); // Increment cursor
-        clear();
+        this(pi4j, new CalibratedLcdTiming());
+    }
+
+    /**
+     * Default pin configuration for LCD with a custom timing strategy.
+     * Uses GPIO pins RS=17, E=27, D4=5, D5=6, D6=13, D7=26
+     * @param pi4j Pi4J Context object, created via Pi4J.newAutoContext()
+     * @param timing The timing strategy used between GPIO transitions
+     */
+    public LCDisplay(Context pi4j, LcdTiming timing) {
+        this(pi4j, timing, 17, 27, 5, 6, 13, 26);
     }
 
     /**
@@ -52,23 +63,74 @@ public class LCDisplay {
      */
     @SuppressWarnings("unused")
     public LCDisplay(Context pi4j, int RS, int E, int D4, int D5, int D6, int D7) {
+        this(pi4j, new CalibratedLcdTiming(), RS, E, D4, D5, D6, D7);
+    }
+
+    /**
+     * Custom pin configuration for LCD with a custom timing strategy.
+     * @param pi4j Pi4J Context object, created via Pi4J.newAutoContext()
+     * @param timing The timing strategy used between GPIO transitions
+     * @param RS Provide GPIO pin for RS as an integer
+     * @param E Provide GPIO pin for E as an integer
+     * @param D4 Provide GPIO pin for D4 as an integer
+     * @param D5 Provide GPIO pin for D5 as an integer
+     * @param D6 Provide GPIO pin for D6 as an integer
+     * @param D7 Provide GPIO pin for D7 as an integer
+     */
+    public LCDisplay(Context pi4j, LcdTiming timing, int RS, int E, int D4, int D5, int D6, int D7) {
         this.pi4j = pi4j;
+        this.timing = timing;
         this.pinRS = createOutput("lcd-rs", "LCD RS", RS);
         this.pinE = createOutput("lcd-e", "LCD E", E);
         this.pinD4 = createOutput("lcd-d4", "LCD D4", D4);
         this.pinD5 = createOutput("lcd-d5", "LCD D5", D5);
         this.pinD6 = createOutput("lcd-d6", "LCD D6", D6);
         this.pinD7 = createOutput("lcd-d7", "LCD D7", D7);
+    }
 
-        // Initialize the LCD (4-bit mode)
-        writeCommand(0x33); // Initialize
-        writeCommand(0x32); // Set to 4-bit mode
+    /**
+     * Run the controller's initialization sequence. The constructor only provisions the pins, this takes several
+     * milliseconds of datasheet delays so it is left to whichever thread owns the display, which keeps it off the
+     * main thread during startup. Must be called once before anything is drawn.
+     */
+    public synchronized void initialize() {
+        // Initialize the LCD (4-bit mode). The first nibbles are sent on their own because the controller may still
+        // be in 8-bit mode and needs the datasheet's power-on delays between them.
+        pinRS.low();
+        writeNibble(0x3);
+        timing.delayNanos(4_500_000);
+        writeNibble(0x3);
+        timing.delayNanos(150_000);
+        writeNibble(0x3);
+        timing.delayNanos(150_000);
+        writeNibble(0x2); // Set to 4-bit mode
+        timing.delayNanos(150_000);
         writeCommand(0x28); // 2 line, 5x8 matrix
         writeCommand(0x0C); // Display on, cursor off
         writeCommand(0x06); // Increment cursor
         clear();
     }
 
+    /**
+     * Switch to reading the busy flag instead of waiting out the datasheet execution times. This needs the LCD's R/W
+     * pin wired to a GPIO instead of ground, and D7 readable on a separate input. Because the controller drives the
+     * data lines while R/W is high, D4-D7 must be connected through series resistors (about 1k) so it can overdrive
+     * the Pi's outputs, and the sense input must be level shifted if the LCD runs at 5 V.
+     * @param rwAddress GPIO address wired to the LCD R/W pin
+     * @param busyAddress GPIO address wired to the LCD side of D7
+     */
+    public synchronized void enableBusyFlag(int rwAddress, int busyAddress) {
+        this.pinRW = createOutput("lcd-rw", "LCD RW", rwAddress);
+        DigitalInputConfig busyConfig = DigitalInput.newConfigBuilder(pi4j)
+                .id("lcd-busy")
+                .name("LCD Busy")
+                .address(busyAddress)
+                .pull(PullResistance.OFF)
+                .build();
+        this.pinBusy = pi4j.create(busyConfig, DigitalInput.class);
+        this.timing = new BusyFlagLcdTiming(timing, this::readBusyFlag);
+    }
+
     /**
      * Create a digital output pin
      * @param id This is the unique identifier for the pin
@@ -90,14 +152,10 @@ public class LCDisplay {
     /**
      * Clear the LCD
      */
-    public void clear() {
+    public synchronized void clear() {
         writeCommand(0x01); // Clear display command
-        try {
-            sleep(2); // Wait for command to complete
-        } catch (InterruptedException e) {
-            // Restore interrupted state
-            Thread.currentThread().interrupt();
-        }
+        Arrays.fill(shadow, (byte) ' ');
+        cursor = 0; // Clear also returns the address counter home
     }
 
     /**
@@ -114,6 +172,9 @@ public class LCDisplay {
      */
     private void writeData(int value) {
         write(value, true);
+        int cell = cellIndex(cursor);
+        if (cell >= 0) shadow[cell] = (byte) value;
+        if (cursor >= 0) cursor++;
     }
 
     /**
@@ -123,49 +184,71 @@ public class LCDisplay {
      */
     private void write(int value, boolean rs) {
         if (rs) pinRS.high(); else pinRS.low();
+        totalBytesWritten++;
         int high = (value >> 4) & 0x0F;
         int low  = value & 0x0F;
         writeNibble(high);
         writeNibble(low);
+        // Wait out the execution time, milliseconds only for clear and home
+        timing.awaitExecution(value, rs);
     }
 
     /**
      * Pulse the enable pin to latch data into the LCD
      */
     private void pulseEnable() {
-        try {
-            // Enable pulse
-            pinE.high();
-            // Sleep for 1 millisecond to allow the LCD to latch the data
-            Thread.sleep(1);
-            // Disable pulse
-            pinE.low();
-            // Sleep for 1 millisecond to allow the LCD to process the data
-            Thread.sleep(1);
-        } catch (InterruptedException e) {
-            // Restore interrupted state
-            Thread.currentThread().interrupt();
-        }
+        // Enable pulse, held just long enough for the LCD to latch the data
+        pinE.high();
+        timing.enableHold();
+        // Disable pulse, held to complete the enable cycle
+        pinE.low();
+        timing.enableHold();
+    }
+
+    /**
+     * Read the busy flag. The data pins are driven high so the series resistors let the controller pull D7 down once
+     * it is ready, and the second nibble (address counter low bits) is clocked out and ignored.
+     * @return True while the controller is still executing the last instruction
+     */
+    private boolean readBusyFlag() {
+        pinD4.high();
+        pinD5.high();
+        pinD6.high();
+        pinD7.high();
+        pinRS.low();
+        pinRW.high();
+        pinE.high();
+        timing.enableHold();
+        boolean busy = pinBusy.isHigh();
+        pinE.low();
+        timing.enableHold();
+        pinE.high();
+        timing.enableHold();
+        pinE.low();
+        timing.enableHold();
+        pinRW.low();
+        return busy;
     }
 
     /**
      * Set cursor to column (0-based) and row (0-based).
      * DDRAM addresses: line0 start 0x00 (command 0x80), line1 start 0x40 (command 0xC0)
      */
-    public void setCursor(int col, int row) {
+    public synchronized void setCursor(int col, int row) {
         if (row < 0) row = 0;
         if (row >= rows) row = rows - 1;
         if (col < 0) col = 0;
         if (col >= columns) col = columns - 1;
         int addr = (row == 0) ? col : (0x40 + col);
         writeCommand(0x80 | addr);
+        cursor = addr;
     }
 
     /**
      * Print a message to the LCD starting at the home position (0,0).
      * @param message This is the message to print
      */
-    public void print(String message) {
+    public synchronized void print(String message) {
         int curRow = 0;
         int curCol = 0;
 
@@ -194,6 +277,87 @@ public class LCDisplay {
         }
     }
 
+    /**
+     * Commit a full frame to the LCD. The frame is compared against the shadow copy of the display and only the runs
+     * of changed cells are sent, each preceded by a cursor-set command only when the controller's address counter
+     * isn't already there. The display is never cleared so there is no flicker. Lines are padded or cut to fit.
+     * @param lines One string per row, missing rows are treated as blank.
+     * @return The number of bytes (commands and data) sent to the controller for this frame.
+     */
+    public synchronized long commitFrame(String... lines) {
+        long before = totalBytesWritten;
+
+        // Lay the frame out row by row, padded with spaces
+        for (int row = 0; row < rows; row++) {
+            String line = row < lines.length && lines[row] != null ? lines[row] : "";
+            for (int col = 0; col < columns; col++) {
+                target[row * columns + col] = (byte) (col < line.length() ? line.charAt(col) : ' ');
+            }
+        }
+
+        for (int row = 0; row < rows; row++) {
+            int col = 0;
+            while (col < columns) {
+                int i = row * columns + col;
+                if (target[i] == shadow[i]) {
+                    col++;
+                    continue;
+                }
+
+                // Extend the run while cells differ, bridging single unchanged cells because rewriting one byte costs
+                // the same as the cursor-set command we'd otherwise need to skip it
+                int end = col + 1;
+                while (end < columns) {
+                    int j = row * columns + end;
+                    if (target[j] != shadow[j]) {
+                        end++;
+                    } else if (end + 1 < columns && target[j + 1] != shadow[j + 1]) {
+                        end += 2;
+                    } else {
+                        break;
+                    }
+                }
+
+                int addr = (row == 0) ? col : (0x40 + col);
+                if (cursor != addr) setCursor(col, row);
+                for (int c = col; c < end; c++) {
+                    writeData(target[row * columns + c] & 0xFF);
+                }
+                col = end;
+            }
+        }
+
+        lastFrameBytes = totalBytesWritten - before;
+        return lastFrameBytes;
+    }
+
+    /**
+     * Get the number of bytes sent to the controller by the most recent frame commit.
+     * @return Bytes written by the last commitFrame call.
+     */
+    public synchronized long getLastFrameBytes() {
+        return lastFrameBytes;
+    }
+
+    /**
+     * Get the number of bytes sent to the controller since the display was created.
+     * @return Total bytes written, commands and data.
+     */
+    public synchronized long getTotalBytesWritten() {
+        return totalBytesWritten;
+    }
+
+    /**
+     * Map a DDRAM address to an index in the shadow framebuffer.
+     * @param addr The DDRAM address.
+     * @return The shadow index, or -1 if the address isn't a visible cell.
+     */
+    private int cellIndex(int addr) {
+        if (addr >= 0 && addr < columns) return addr;
+        if (addr >= 0x40 && addr < 0x40 + columns) return columns + (addr - 0x40);
+        return -1;
+    }
+
     /**
      * Write a nibble (4 bits) to the data pins
      * @param nibble This is the 4-bit value to write
@@ -0,0 +1,140 @@
+package com.cadebray;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Owns the LCD on a dedicated thread. Producers hand over complete frames through a single-slot mailbox and return
+ * immediately; if a newer frame arrives before the previous one was written, the stale frame is dropped. The render
+ * thread also runs the display's initialization sequence, so startup never waits on it, and draws a boot frame as soon
+ * as the display is ready.
+ */
+@Component
+public class LcdRenderer {
+    private static final String[] BOOT_FRAME = {"Thermostat", "Starting..."};
+
+    private final LCDisplay lcd;
+    private final StartupMetrics startupMetrics;
+    private final AtomicReference<String[]> mailbox = new AtomicReference<>();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Timer frameTimer;
+    private volatile boolean running = false;
+    private Thread renderThread;
+
+    /**
+     * Constructor for LcdRenderer.
+     * @param lcd The LCD this renderer owns. Nothing else should write to it once the renderer has started.
+     * @param registry The registry the LCD metrics are reported to.
+     * @param startupMetrics Told when the first frame has been drawn.
+     */
+    public LcdRenderer(LCDisplay lcd, MeterRegistry registry, StartupMetrics startupMetrics) {
+        this.lcd = lcd;
+        this.startupMetrics = startupMetrics;
+        this.frameTimer = Timer.builder("thermostat.lcd.frame")
+                .description("Time to diff and write one frame to the LCD")
+                .register(registry);
+        FunctionCounter.builder("thermostat.lcd.bytes", lcd, LCDisplay::getTotalBytesWritten)
+                .description("Bytes written to the LCD, commands and data")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("thermostat.lcd.frames.dropped", dropped, AtomicLong::get)
+                .description("Frames replaced by a newer frame before they were written")
+                .register(registry);
+    }
+
+    /**
+     * Start the render thread and queue the boot frame. Uses @PostConstruct to start after construction.
+     */
+    @PostConstruct
+    public void start() {
+        running = true;
+        renderThread = new Thread(this::renderLoop, "lcd-render");
+        renderThread.setDaemon(true);
+        renderThread.start();
+        submit(BOOT_FRAME);
+    }
+
+    /**
+     * Stop the render thread. Uses @PreDestroy to stop before destruction.
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (renderThread != null) {
+            LockSupport.unpark(renderThread);
+        }
+    }
+
+    /**
+     * Submit a frame to be drawn. Never blocks on GPIO; the newest frame replaces any frame still waiting.
+     * @param lines One string per LCD row.
+     */
+    public void submit(String... lines) {
+        submitted.incrementAndGet();
+        if (mailbox.getAndSet(lines) != null) {
+            dropped.incrementAndGet();
+        }
+        LockSupport.unpark(renderThread);
+    }
+
+    /**
+     * Take frames from the mailbox and write them until the renderer is shut down.
+     */
+    private void renderLoop() {
+        try {
+            lcd.initialize();
+        } catch (Exception e) {
+            System.err.println("Error initializing LCD: " + e.getMessage());
+        }
+        while (running) {
+            String[] frame = mailbox.getAndSet(null);
+            if (frame == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                lcd.commitFrame(frame);
+                frameTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                rendered.incrementAndGet();
+                startupMetrics.firstFrame();
+            } catch (Exception e) {
+                System.err.println("Error rendering LCD frame: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get the number of frames producers have submitted.
+     * @return Frames submitted since startup.
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * Get the number of frames written to the LCD.
+     * @return Frames rendered since startup.
+     */
+    public long getRendered() {
+        return rendered.get();
+    }
+
+    /**
+     * Get the number of frames replaced by a newer frame before they were written.
+     * @return Frames dropped since startup.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,36 @@
+package com.cadebray;
+
+/**
+ * Timing strategy for the HD44780 controller. The LCD driver calls into this between GPIO transitions so the waits can
+ * follow the datasheet instead of a blanket millisecond sleep.
+ */
+public interface LcdTiming {
+
+    /**
+     * Hold the enable line in its current level long enough for the controller to latch, about 450 ns.
+     */
+    void enableHold();
+
+    /**
+     * Wait until the controller has executed the byte that was just written.
+     * @param value The byte that was written.
+     * @param data True if the byte was data (RS high), false for a command.
+     */
+    void awaitExecution(int value, boolean data);
+
+    /**
+     * Wait for an explicit amount of time, used by the power-on initialization sequence.
+     * @param nanos Time to wait in nanoseconds.
+     */
+    void delayNanos(long nanos);
+
+    /**
+     * Clear display (0x01) and return home (0x02/0x03) are the only commands that take milliseconds to run.
+     * @param value The byte that was written.
+     * @param data True if the byte was data, false for a command.
+     * @return True if the byte needs the long execution time.
+     */
+    static boolean isLongCommand(int value, boolean data) {
+        return !data && (value == 0x01 || (value & 0xFE) == 0x02);
+    }
+}
@@ -0,0 +1,37 @@
+package com.cadebray;
+
+import com.pi4j.context.Context;
+
+/**
+ * One indicator LED as the LedService's control thread drives it. The implementation decides how much the pin can do by
+ * itself: a hardware PWM channel can blink or dim without any further writes, a plain GPIO output can only be switched
+ * and leaves the timing to the control thread.
+ */
+public interface LedOutput {
+
+    /**
+     * Drive the LED at a brightness.
+     * @param dutyCycle Brightness in percent, 0 for off and 100 for fully on. A pin that can't dim lights for anything
+     *                  above 0.
+     */
+    void level(int dutyCycle);
+
+    /**
+     * Start blinking the LED in hardware, half the period on and half off.
+     * @param frequency Blink frequency in Hz.
+     * @return True if the pin now blinks by itself, false if the caller has to toggle it with level.
+     */
+    boolean blink(int frequency);
+
+    /**
+     * Check whether level takes effect between fully on and fully off.
+     * @return True if the pin can dim.
+     */
+    boolean isDimmable();
+
+    /**
+     * Turn the LED off and release the pin.
+     * @param pi4j Pi4J Context the pin was created in.
+     */
+    void shutdown(Context pi4j);
+}
@@ -4,73 +4,199 @@ import com.pi4j.context.Context;
 import com.pi4j.io.gpio.digital.DigitalOutput;
 import com.pi4j.io.gpio.digital.DigitalOutputConfig;
 import com.pi4j.io.gpio.digital.DigitalState;
+import com.pi4j.io.pwm.Pwm;
+import com.pi4j.io.pwm.PwmConfig;
+import com.pi4j.io.pwm.PwmType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import org.springframework.beans.factory.ObjectFactory;
-import org.springframework.statemachine.StateMachine;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Component;
 import org.springframework.context.event.EventListener;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Service to manage LED indicators for thermostat states.
  * Controls red and blue LEDs based on heating and cooling states.
+ * <p>
+ * The LEDs are driven from desired state. Producers, the state machine and the sensor event listener, only swap the
+ * Target they want into an atomic reference and wake the control thread, which never blocks them. The control thread
+ * owns the GPIO: it compares the target with what it last applied and writes only the pins that differ. A reading that
+ * doesn't change the target costs one compare.
+ * <p>
+ * The red LED sits on GPIO 18, which is hardware PWM channel 0. Where that channel is available the red light pulses
+ * in the PWM peripheral and the control thread sleeps until the target changes. The blue LED on GPIO 23, and the red
+ * one if PWM is unavailable, is toggled by the control thread on a fixed grid of half periods, so the thread wakes
+ * once per toggle and never between them. Breathing, a smooth fade instead of a blink, needs a duty cycle update every
+ * step and is only used when enabled.
  */
 @Component
+@ConfigurationProperties(prefix = "led")
 public class LedService {
+    private static final int PULSE_HZ = 1;
+    private static final long TOGGLE_NANOS = TimeUnit.SECONDS.toNanos(1) / (2 * PULSE_HZ);
+    private static final int BREATH_STEPS = 40;
+    private static final long BREATH_STEP_NANOS = TimeUnit.SECONDS.toNanos(2) / BREATH_STEPS;
+
+    /**
+     * What the LEDs should show: which light, and whether it is steady or pulsing. Both halves are one value so they
+     * are always published together.
+     */
+    enum Target {
+        OFF(States.OFF, false),
+        HEAT_PULSE(States.HEAT, false),
+        HEAT_STEADY(States.HEAT, true),
+        COOL_PULSE(States.COOL, false),
+        COOL_STEADY(States.COOL, true);
+
+        private final States mode;
+        private final boolean steady;
+
+        Target(States mode, boolean steady) {
+            this.mode = mode;
+            this.steady = steady;
+        }
+
+        /**
+         * Get the target for a mode.
+         * @param mode The thermostat state.
+         * @param steady True once the setpoint has been reached, false to pulse.
+         * @return The matching target, OFF for the OFF state.
+         */
+        static Target of(States mode, boolean steady) {
+            return switch (mode) {
+                case HEAT -> steady ? HEAT_STEADY : HEAT_PULSE;
+                case COOL -> steady ? COOL_STEADY : COOL_PULSE;
+                case OFF -> OFF;
+            };
+        }
+    }
+
     private final Context pi4j;
-    private final AHT20 aht20;
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final SensorFilter sensorFilter;
     private final ThermostatProperties thermostatProperties;
-    private final ObjectFactory<StateMachine<States, Events>> stateMachineFactory;
-    private DigitalOutput redLed;
-    private DigitalOutput blueLed;
-    private ScheduledFuture<?> pulseTask;
-    private final AtomicBoolean pulsing = new AtomicBoolean(false);
-    private final Object pulseLock = new Object();
+    private final AsyncTaskExecutor bootstrap;
+    private final Counter togglesAvoided;
+    private final AtomicReference<Target> desired = new AtomicReference<>(Target.OFF);
+    private final AtomicLong writes = new AtomicLong();
+    private String pwmProvider = "linuxfs-pwm";
+    private int pwmChannel = 0;
+    private boolean breathing = false;
+    // Provisioned on the bootstrap executor, null until then so every use is null checked
+    private volatile LedOutput redLed;
+    private volatile LedOutput blueLed;
+    private CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
+    private volatile boolean running = false;
+    private Thread controlThread;
+    // What the raw reading alone would have chosen, to count the switches the filter and hysteresis held back. Written
+    // by the sensor event listener, which never runs concurrently with itself, and reset when a mode is entered.
+    private volatile Target rawTarget = Target.OFF;
+
+    // Owned by the control thread, the duty cycle each LED was last driven at and -1 while it blinks in hardware
+    private int redLevel = 0;
+    private int blueLevel = 0;
 
     /**
      * Constructor for LedService.
      * @param pi4j Pi4J Context for GPIO interactions
-     * @param aht20 AHT20 sensor for temperature readings
+     * @param sensorFilter Filter stage holding the latest filtered temperature and the hysteresis band
+     * @param thermostatProperties Holds the setpoint
+     * @param bootstrap Executor the LED pins are provisioned on
+     * @param registry Registry the LED metrics are reported to
      */
-    public LedService(Context pi4j, AHT20 aht20, ThermostatProperties thermostatProperties,
-                      ObjectFactory<StateMachine<States, Events>> stateMachineFactory) {
+    public LedService(Context pi4j, SensorFilter sensorFilter, ThermostatProperties thermostatProperties,
+                      @Qualifier(SchedulingConfig.BOOTSTRAP) AsyncTaskExecutor bootstrap, MeterRegistry registry) {
         this.thermostatProperties = thermostatProperties;
+        this.bootstrap = bootstrap;
         this.pi4j = pi4j;
-        this.aht20 = aht20;
-        this.stateMachineFactory = stateMachineFactory;
+        this.sensorFilter = sensorFilter;
+        this.togglesAvoided = Counter.builder("thermostat.filter.led.toggles.avoided")
+                .description("Switches between a steady and a pulsing LED that the raw readings would have caused")
+                .register(registry);
+        FunctionCounter.builder("thermostat.led.writes", writes, AtomicLong::get)
+                .description("Writes to the LED pins and PWM channel, including pulse toggles")
+                .register(registry);
     }
 
     /**
-     * Initialize the LED GPIO outputs. Uses @PostConstruct to set up after construction.
+     * Start provisioning the LED GPIO outputs on the bootstrap executor and start the control thread, which waits for
+     * the pins. Uses @PostConstruct to set up after construction, without holding up the rest of the context while
+     * the pins are exported.
      */
     @PostConstruct
     public void initialize() {
-        // Setup red LED on GPIO pin 18
-        DigitalOutputConfig redConfig = DigitalOutput.newConfigBuilder(pi4j)
-                .id("red-led")
-                .name("Red LED")
-                .address(18) // GPIO pin 18
-                .shutdown(DigitalState.LOW)
-                .initial(DigitalState.LOW)
-                .build();
+        ready = bootstrap.submitCompletable(this::provision).whenComplete((ignored, error) -> {
+            if (error != null) {
+                System.err.println("Error provisioning LEDs: " + error.getMessage());
+            }
+        });
+        running = true;
+        controlThread = new Thread(this::controlLoop, "led-control");
+        controlThread.setDaemon(true);
+        controlThread.start();
+    }
+
+    /**
+     * Create the LED outputs, the red one on its hardware PWM channel if there is one.
+     */
+    private void provision() {
+        redLed = provisionPwm();
+        if (redLed == null) {
+            redLed = provisionDigital("red-led", "Red LED", 18); // GPIO pin 18
+        }
+        blueLed = provisionDigital("blue-led", "Blue LED", 23); // GPIO pin 23
+    }
+
+    /**
+     * Create the red LED on hardware PWM.
+     * @return The PWM LED, or null if PWM is disabled or the channel can't be opened.
+     */
+    private LedOutput provisionPwm() {
+        if (pwmProvider == null || pwmProvider.isBlank()) {
+            return null;
+        }
+        try {
+            PwmConfig config = Pwm.newConfigBuilder(pi4j)
+                    .id("red-led")
+                    .name("Red LED")
+                    .address(pwmChannel) // PWM channel 0 is GPIO pin 18
+                    .pwmType(PwmType.HARDWARE)
+                    .provider(pwmProvider)
+                    .initial(0)
+                    .shutdown(0)
+                    .build();
+            return new PwmLed(pi4j.create(config));
+        } catch (Exception e) {
+            System.err.println("Hardware PWM unavailable for the red LED, using GPIO: " + e.getMessage());
+            return null;
+        }
+    }
 
-        // Setup blue LED on GPIO pin 23
-        DigitalOutputConfig blueConfig = DigitalOutput.newConfigBuilder(pi4j)
-                .id("blue-led")
-                .name("Blue LED")
-                .address(23) // GPIO pin 23
+    /**
+     * Create an LED on a plain GPIO output.
+     * @param id Pi4J id of the output.
+     * @param name Display name of the output.
+     * @param address BCM GPIO pin number.
+     * @return The digital LED.
+     */
+    private LedOutput provisionDigital(String id, String name, int address) {
+        DigitalOutputConfig config = DigitalOutput.newConfigBuilder(pi4j)
+                .id(id)
+                .name(name)
+                .address(address)
                 .shutdown(DigitalState.LOW)
                 .initial(DigitalState.LOW)
                 .build();
-
-        redLed = pi4j.create(redConfig, DigitalOutput.class);
-        blueLed = pi4j.create(blueConfig, DigitalOutput.class);
+        return new DigitalLed(pi4j.create(config, DigitalOutput.class));
     }
 
     /**
@@ -78,139 +204,251 @@ public class LedService {
      */
     @PreDestroy
     public void shutdown() {
-        stopPulse();
+        // Let provisioning finish so no pin is created after it would have been released
+        ready.handle((ignored, error) -> null).join();
+        running = false;
+        if (controlThread != null) {
+            LockSupport.unpark(controlThread);
+            try {
+                // The control thread turns both LEDs off on its way out
+                controlThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         try {
             if (redLed != null) redLed.shutdown(pi4j);
             if (blueLed != null) blueLed.shutdown(pi4j);
         } catch (Exception e) {
             System.err.println("Error shutting down LEDs: " + e.getMessage());
         }
-        scheduler.shutdownNow();
     }
 
     /**
      * Set both LEDs off and stop any pulsing.
      */
-    public synchronized void setOff() {
-        stopPulse();
-        synchronized (pulseLock) {
-            if (redLed != null) redLed.low();
-            if (blueLed != null) blueLed.low();
-        }
+    public void setOff() {
+        publish(Target.OFF);
     }
 
     /**
      * Handle entering the heating state. Turns on red LED or pulses it based on temperature.
      */
-    public synchronized void onEnterHeat() {
-        double[] sensor;
-        stopPulse();
+    public void onEnterHeat() {
+        publish(Target.of(States.HEAT, isSetpointReached(States.HEAT)));
+    }
+
+    /**
+     * Handle entering the cooling state. Turns on blue LED or pulses it based on temperature.
+     */
+    public void onEnterCool() {
+        publish(Target.of(States.COOL, isSetpointReached(States.COOL)));
+    }
+
+    /**
+     * Check the cached filtered sample against the setpoint for a newly entered mode, without hysteresis.
+     * @param mode The mode being entered.
+     * @return True if the setpoint has been reached, false to pulse or if there is no recent sample.
+     */
+    private boolean isSetpointReached(States mode) {
         double setpoint = thermostatProperties.getSetpoint();
         try {
-            sensor = aht20.readSensor();
-            System.out.println("Heat check: temp=" + sensor[1] + " setpoint=" + setpoint);
-            // Simulating a sensor event to update lighting because we just entered a new state.
-            updateOnEvent(new SensorReadEvent(sensor));
+            FilteredSensorEvent sensor = sensorFilter.getLatest(Duration.ofSeconds(5));
+            System.out.println((mode == States.HEAT ? "Heat" : "Cool") + " check: temp=" + sensor.getFahrenheit()
+                    + " setpoint=" + setpoint);
+            rawTarget = Target.of(mode, margin(mode, sensor.raw().getFahrenheit(), setpoint) >= 0);
+            return margin(mode, sensor.getFahrenheit(), setpoint) >= 0;
         } catch (Exception e) {
             System.err.println("Error reading temperature: " + e.getMessage());
-        } finally {
-            synchronized (pulseLock) {
-                if (blueLed != null) blueLed.low();
-            }
+            return false;
         }
     }
 
     /**
-     * Handle entering the cooling state. Turns on blue LED or pulses it based on temperature.
+     * Event listener for filtered temperature samples. A heating light turns steady once the temperature reaches the
+     * setpoint and only goes back to pulsing once it has fallen the hysteresis band below it, and the other way around
+     * for cooling. The mode comes from the current target, so a reading never undoes a state change.
+     * @param reading The filtered temperature sample
      */
-    public synchronized void onEnterCool() {
-        double[] sensor;
-        stopPulse();
+    @EventListener
+    public void updateOnEvent(FilteredSensorEvent reading) {
         double setpoint = thermostatProperties.getSetpoint();
-        try {
-            sensor = aht20.readSensor();
-            System.out.println("Cool check: temp=" + sensor[1] + " setpoint=" + setpoint);
-            // Simulating a sensor event to update lighting because we just entered a new state.
-            updateOnEvent(new SensorReadEvent(sensor));
-        } catch (Exception e) {
-            System.err.println("Error reading temperature: " + e.getMessage());
-        } finally {
-            synchronized (pulseLock) {
-                if (redLed != null) redLed.low();
-            }
+        double hysteresis = sensorFilter.getLedHysteresis();
+        Target current;
+        Target next;
+        do {
+            current = desired.get();
+            if (current == Target.OFF) return;
+            double margin = margin(current.mode, reading.getFahrenheit(), setpoint);
+            next = Target.of(current.mode, current.steady ? margin > -hysteresis : margin >= 0);
+        } while (next != current && !desired.compareAndSet(current, next));
+
+        Target raw = Target.of(current.mode, margin(current.mode, reading.raw().getFahrenheit(), setpoint) >= 0);
+        if (next == current && rawTarget.mode == current.mode && raw != rawTarget) {
+            togglesAvoided.increment();
+        }
+        rawTarget = raw;
+        if (next != current) {
+            LockSupport.unpark(controlThread);
         }
     }
 
     /**
-     * Start pulsing the given LED at a fixed interval.
-     * @param led The DigitalOutput LED to pulse
+     * Get how far a temperature is on the satisfied side of the setpoint.
+     * @param mode HEAT or COOL.
+     * @param temperature The temperature in degrees Fahrenheit.
+     * @param setpoint The setpoint in degrees Fahrenheit.
+     * @return Positive once the setpoint has been reached.
      */
-    private void startPulse(DigitalOutput led) {
-        if (led == null) return;
-        // stop any existing pulse first
-        stopPulse();
-        pulsing.set(true);
-        // schedule with an initial delay to reduce immediate race with subsequent state changes
-        pulseTask = scheduler.scheduleAtFixedRate(() -> {
-            if (!pulsing.get()) return;
-            synchronized (pulseLock) {
-                try {
-                    if (led.state().isHigh()) {
-                        led.low();
-                    } else {
-                        led.high();
-                    }
-                } catch (Exception ignored) {}
-            }
-        }, 600, 600, TimeUnit.MILLISECONDS);
+    private static double margin(States mode, double temperature, double setpoint) {
+        return (mode == States.HEAT) ? temperature - setpoint : setpoint - temperature;
     }
 
     /**
-     * Stop any ongoing pulsing of LEDs.
+     * Publish a new target and wake the control thread if it changed.
+     * @param target What the LEDs should show.
      */
-    private void stopPulse() {
-        // clear flag first so any running task will skip toggling
-        pulsing.set(false);
-        if (pulseTask != null) {
-            try {
-                pulseTask.cancel(true);
-            } catch (Exception ignored) {}
-            pulseTask = null;
+    private void publish(Target target) {
+        if (desired.getAndSet(target) != target) {
+            LockSupport.unpark(controlThread);
         }
     }
 
     /**
-     * Event listener for temperature crossing events.
-     * @param reading The measured temperature
+     * Apply the desired target whenever it changes and time a pulse that isn't running in hardware, parking in between.
+     * Timed steps fall on a fixed grid of System.nanoTime, so they never drift and any number of lights on the same
+     * interval share one wakeup. Runs until the service is shut down, then turns both LEDs off.
      */
-    @EventListener
-    public synchronized void updateOnEvent(SensorReadEvent reading) {
-        double temp = reading.getFahrenheit();
-        double setpoint = thermostatProperties.getSetpoint();
-        StateMachine<States, Events> sm = stateMachineFactory.getObject();
-        if (sm.getState() == null) return;
-        States current = sm.getState().getId();
-        DigitalOutput light = (current == States.HEAT) ? redLed : (current == States.COOL) ? blueLed : null;
-        if (light == null) return;
-
-        if (temp >= setpoint && current == States.HEAT) {
-            // reached or above setpoint and heat state -> steady light on
-            stopPulse();
-            synchronized (pulseLock) {
-                light.high();
+    private void controlLoop() {
+        ready.handle((ignored, error) -> null).join();
+        Target applied = null;
+        long interval = 0; // Nanoseconds between timed steps, 0 when nothing is timed
+        long step = 0;     // Grid index of the next timed step
+        while (running) {
+            Target target = desired.get();
+            if (target != applied) {
+                applied = target;
+                interval = apply(applied);
+                step = System.nanoTime() / Math.max(interval, 1) + 1;
+                continue;
             }
-        } else if (temp <= setpoint && current == States.COOL) {
-            // reached or above setpoint and cool state -> steady light on
-            stopPulse();
-            synchronized (pulseLock) {
-                light.high();
+            if (interval == 0) {
+                LockSupport.park(this);
+                continue;
             }
-        } else {
-            // below setpoint -> pulse light
-            synchronized (pulseLock) {
-                light.low();
-                startPulse(light);
+            long wait = step * interval - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
             }
+            LedOutput light = (applied.mode == States.HEAT) ? redLed : blueLed;
+            drive(light, (interval == BREATH_STEP_NANOS) ? breath(step) : (step % 2 == 0) ? 100 : 0);
+            // Skip missed steps rather than catching up on them after a stall
+            step = Math.max(step + 1, System.nanoTime() / interval + 1);
         }
+        drive(redLed, 0);
+        drive(blueLed, 0);
+    }
+
+    /**
+     * Drive the LEDs for a new target. The light that isn't used is turned off, a steady light is turned fully on and
+     * a pulsing light is handed to the hardware if it can blink by itself.
+     * @param target What the LEDs should show.
+     * @return Nanoseconds between the steps the control thread has to time, 0 if none.
+     */
+    private long apply(Target target) {
+        LedOutput light = switch (target.mode) {
+            case HEAT -> redLed;
+            case COOL -> blueLed;
+            case OFF -> null;
+        };
+        drive(light == redLed ? blueLed : redLed, 0);
+        if (light == null) {
+            drive(blueLed, 0);
+            return 0;
+        }
+        if (target.steady) {
+            drive(light, 100);
+            return 0;
+        }
+        if (breathing && light.isDimmable()) {
+            return BREATH_STEP_NANOS;
+        }
+        try {
+            if (light.blink(PULSE_HZ)) {
+                setLevel(light, -1);
+                writes.incrementAndGet();
+                return 0;
+            }
+        } catch (Exception e) {
+            System.err.println("Error driving LEDs: " + e.getMessage());
+        }
+        drive(light, 0);
+        return TOGGLE_NANOS;
+    }
+
+    /**
+     * Get the breathing brightness for a step, a raised cosine that fades up and back down once per cycle.
+     * @param step Grid index of the step.
+     * @return Duty cycle in percent.
+     */
+    private static int breath(long step) {
+        double phase = 2 * Math.PI * (step % BREATH_STEPS) / BREATH_STEPS;
+        return (int) Math.round(50 - 50 * Math.cos(phase));
+    }
+
+    /**
+     * Drive one LED, writing only if its level differs from the last write.
+     * @param light The LED, null if it hasn't been provisioned.
+     * @param dutyCycle Brightness in percent.
+     */
+    private void drive(LedOutput light, int dutyCycle) {
+        if (light == null || getLevel(light) == dutyCycle) return;
+        try {
+            light.level(dutyCycle);
+            setLevel(light, dutyCycle);
+            writes.incrementAndGet();
+        } catch (Exception e) {
+            System.err.println("Error driving LEDs: " + e.getMessage());
+        }
+    }
+
+    private int getLevel(LedOutput light) {
+        return (light == redLed) ? redLevel : blueLevel;
+    }
+
+    private void setLevel(LedOutput light, int level) {
+        if (light == redLed) {
+            redLevel = level;
+        } else {
+            blueLevel = level;
+        }
+    }
+
+    /**
+     * Set the Pi4J provider for the red LED's hardware PWM channel. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param pwmProvider Provider id, linuxfs-pwm on a Raspberry Pi, empty to always use GPIO.
+     */
+    public void setPwmProvider(String pwmProvider) {
+        this.pwmProvider = pwmProvider;
+    }
+
+    /**
+     * Set the hardware PWM channel the red LED is wired to. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param pwmChannel Channel on the PWM chip, 0 for GPIO pin 18 with the pwm overlay.
+     */
+    public void setPwmChannel(int pwmChannel) {
+        this.pwmChannel = pwmChannel;
+    }
+
+    /**
+     * Set whether a pulsing PWM light fades in and out instead of blinking. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param breathing True to breathe, which wakes the control thread every step of the fade.
+     */
+    public void setBreathing(boolean breathing) {
+        this.breathing = breathing;
     }
 }
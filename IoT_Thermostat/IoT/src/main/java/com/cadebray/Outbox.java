@@ -0,0 +1,408 @@
+package com.cadebray;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe, append-only outbox for everything the device sends to the backend. Requests are written to a
+ * memory-mapped file first and replayed in order once the backend can be reached, so nothing is lost while offline or
+ * across a reboot.
+ * <p>
+ * File layout: a 64 byte header (magic, version, read offset, write offset, read sequence, next sequence) followed by
+ * records of [int payload length][int CRC32][long sequence][byte type][payload]. The CRC covers everything after
+ * itself. Records are appended sequentially and wrap back to the front of the file once the end is reached, with a
+ * length of -1 marking the wrap point. Delivered records are reclaimed as the read offset moves past them, and once
+ * everything has been delivered the log is rewound to the front. On startup the records are re-scanned from the read
+ * offset and the first record with a bad CRC or an unexpected sequence number marks the end of the log, so a torn
+ * write or stale bytes from an earlier lap are never replayed. The mapping is forced to disk in batches to spare the
+ * SD card.
+ * <p>
+ * State records are compacted. The ApiService merges every pending state change into the newest state record, so only
+ * that one needs to reach the backend: older state records are skipped on replay and are the first to go when the
+ * file is full, instead of counting as dropped.
+ */
+@Component
+@ConfigurationProperties(prefix = "outbox")
+public class Outbox {
+    public static final byte TYPE_STATE = 1;
+    public static final byte TYPE_TELEMETRY = 2;
+
+    private static final int MAGIC = 0x4F425831; // "OBX1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_HEADER_SIZE = 17;
+    private static final int WRAP_MARKER = -1;
+    private static final int OFFSET_READ = 8;
+    private static final int OFFSET_WRITE = 16;
+    private static final int OFFSET_READ_SEQ = 24;
+    private static final int OFFSET_NEXT_SEQ = 32;
+
+    private Path path = Path.of(System.getProperty("user.home"), ".thermostat", "outbox.dat");
+    private int capacity = 4 * 1024 * 1024;
+    private MappedByteBuffer buffer;
+    private int readOffset;
+    private int writeOffset;
+    private long readSequence;
+    private long nextSequence;
+    private boolean dirty = false;
+    private long dropped = 0;
+    private long compacted = 0;
+    // Newest state record, its sequence is below readSequence once it has been delivered or dropped
+    private long latestState = -1;
+    private int latestStateOffset;
+
+    /**
+     * A single outbox record.
+     * @param sequence Position of the record in the log, strictly increasing.
+     * @param type What kind of request the payload is, one of the TYPE_ constants.
+     * @param payload The serialized request body.
+     */
+    public record Entry(long sequence, byte type, byte[] payload) {}
+
+    /**
+     * Open or create the outbox file and recover its contents. Uses @PostConstruct so the configuration properties
+     * are bound first.
+     */
+    @PostConstruct
+    public synchronized void open() {
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                // The mapping stays valid after the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open outbox " + path, e);
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            reset(0);
+            return;
+        }
+
+        readOffset = (int) buffer.getLong(OFFSET_READ);
+        readSequence = buffer.getLong(OFFSET_READ_SEQ);
+        if (readOffset < HEADER_SIZE || readOffset > capacity) {
+            reset(0);
+            return;
+        }
+
+        // The header may lag behind the records, find the real end of the log
+        int position = readOffset;
+        long sequence = readSequence;
+        int length;
+        while (true) {
+            length = validRecordLength(position, sequence);
+            if (length == 0 && position != HEADER_SIZE) {
+                // The wrap marker may not have reached the disk, check the front of the file too
+                length = validRecordLength(HEADER_SIZE, sequence);
+                if (length > 0) position = HEADER_SIZE;
+            }
+            if (length == 0) break;
+            if (buffer.get(position + 16) == TYPE_STATE) {
+                latestState = sequence;
+                latestStateOffset = position;
+            }
+            position += length;
+            sequence++;
+        }
+        if (sequence == readSequence) {
+            reset(readSequence);
+            return;
+        }
+        writeOffset = position;
+        nextSequence = sequence;
+        writeHeader();
+    }
+
+    /**
+     * Force outstanding writes to disk and release the file. Uses @PreDestroy to flush before destruction.
+     */
+    @PreDestroy
+    public synchronized void close() {
+        sync();
+    }
+
+    /**
+     * Append a request to the outbox. The write lands in the page cache immediately and reaches the disk on the next
+     * sync. If the file is full the oldest records are dropped to make room.
+     * @param type What kind of request the payload is, one of the TYPE_ constants.
+     * @param payload The serialized request body.
+     */
+    public synchronized void append(byte type, byte[] payload) {
+        int length = RECORD_HEADER_SIZE + payload.length;
+        if (length > capacity - HEADER_SIZE) {
+            throw new IllegalArgumentException("Outbox record of " + payload.length + " bytes can never fit");
+        }
+
+        while (!fits(length)) {
+            if (writeOffset > readOffset && writeOffset + length > capacity) {
+                // No room before the end of the file, continue at the front
+                if (writeOffset + 4 <= capacity) buffer.putInt(writeOffset, WRAP_MARKER);
+                writeOffset = HEADER_SIZE;
+            } else {
+                dropOldest();
+            }
+        }
+
+        int position = writeOffset;
+        buffer.putLong(position + 8, nextSequence);
+        buffer.put(position + 16, type);
+        buffer.put(position + RECORD_HEADER_SIZE, payload);
+        buffer.putInt(position, payload.length);
+        buffer.putInt(position + 4, checksum(position, payload.length));
+        if (type == TYPE_STATE) {
+            latestState = nextSequence;
+            latestStateOffset = position;
+        }
+
+        writeOffset += length;
+        nextSequence++;
+        writeHeader();
+    }
+
+    /**
+     * Get the oldest record without removing it. State records that a newer state record supersedes are removed on
+     * the way.
+     * @return The oldest record, or null if the outbox is empty.
+     */
+    public synchronized Entry peek() {
+        while (readSequence != nextSequence) {
+            skipWrap();
+            if (isSuperseded()) {
+                remove(readSequence);
+                compacted++;
+                continue;
+            }
+            return read(readOffset, readSequence);
+        }
+        return null;
+    }
+
+    /**
+     * Get the newest state record that hasn't been delivered yet, so a new state change can be merged into it.
+     * @return The pending state record, or null if there is none.
+     */
+    public synchronized Entry pendingState() {
+        return hasPendingState() ? read(latestStateOffset, latestState) : null;
+    }
+
+    /**
+     * Check whether a state change is still waiting to be delivered.
+     * @return True if the outbox holds an undelivered state record.
+     */
+    public synchronized boolean hasPendingState() {
+        return latestState >= readSequence && latestState < nextSequence;
+    }
+
+    /**
+     * Remove the oldest record once it has been delivered. Once the outbox is empty the file is rewound to the start.
+     * @param sequence The sequence number of the delivered record, ignored if it is no longer the oldest.
+     */
+    public synchronized void remove(long sequence) {
+        if (readSequence == nextSequence || sequence != readSequence) {
+            return;
+        }
+        skipWrap();
+        readOffset += RECORD_HEADER_SIZE + buffer.getInt(readOffset);
+        readSequence++;
+        if (readSequence == nextSequence) {
+            // Everything has been delivered, start over at the front of the file
+            reset(readSequence);
+        } else {
+            writeHeader();
+        }
+    }
+
+    /**
+     * Force dirty pages to disk. Runs on a fixed interval so appends are batched into a few writes.
+     */
+    @Scheduled(fixedDelay = 2000, scheduler = SchedulingConfig.NETWORK)
+    public synchronized void sync() {
+        if (dirty && buffer != null) {
+            buffer.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Get the number of records waiting to be delivered.
+     * @return Pending record count.
+     */
+    public synchronized long size() {
+        return nextSequence - readSequence;
+    }
+
+    /**
+     * Get the number of records dropped because the outbox was full.
+     * @return Dropped record count since startup.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Get the number of state records skipped because a newer state record superseded them.
+     * @return Compacted record count since startup.
+     */
+    public synchronized long getCompacted() {
+        return compacted;
+    }
+
+    /**
+     * Check whether a record of the given length can be written at the write offset without overwriting pending
+     * records or running past the end of the file.
+     * @param length Full record length.
+     * @return True if the record fits.
+     */
+    private boolean fits(int length) {
+        if (readSequence == nextSequence) {
+            return writeOffset + length <= capacity;
+        }
+        if (writeOffset == readOffset) {
+            // The writer has lapped the reader, the file is full
+            return false;
+        }
+        if (writeOffset > readOffset) {
+            return writeOffset + length <= capacity;
+        }
+        return writeOffset + length <= readOffset;
+    }
+
+    /**
+     * Move the read offset to the front of the file if the writer wrapped at this point.
+     */
+    private void skipWrap() {
+        if (readOffset + RECORD_HEADER_SIZE > capacity || buffer.getInt(readOffset) == WRAP_MARKER) {
+            readOffset = HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Discard the oldest record to make room for new ones.
+     */
+    private void dropOldest() {
+        if (readSequence == nextSequence) {
+            reset(nextSequence);
+            return;
+        }
+        skipWrap();
+        if (isSuperseded()) {
+            compacted++;
+        } else {
+            dropped++;
+        }
+        remove(readSequence);
+    }
+
+    /**
+     * Check whether the record at the read offset is a state record a newer one supersedes.
+     * @return True if the oldest record can be skipped.
+     */
+    private boolean isSuperseded() {
+        return buffer.get(readOffset + 16) == TYPE_STATE && readSequence < latestState;
+    }
+
+    /**
+     * Read a record.
+     * @param position Offset of the record in the file.
+     * @param sequence The record's sequence number.
+     * @return The record.
+     */
+    private Entry read(int position, long sequence) {
+        byte[] payload = new byte[buffer.getInt(position)];
+        buffer.get(position + RECORD_HEADER_SIZE, payload);
+        return new Entry(sequence, buffer.get(position + 16), payload);
+    }
+
+    /**
+     * Rewind the file to an empty log.
+     * @param sequence The sequence number the next record will get.
+     */
+    private void reset(long sequence) {
+        readOffset = HEADER_SIZE;
+        writeOffset = HEADER_SIZE;
+        readSequence = sequence;
+        nextSequence = sequence;
+        latestState = -1;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        writeHeader();
+    }
+
+    /**
+     * Write the offsets and sequence numbers into the header.
+     */
+    private void writeHeader() {
+        buffer.putLong(OFFSET_READ, readOffset);
+        buffer.putLong(OFFSET_WRITE, writeOffset);
+        buffer.putLong(OFFSET_READ_SEQ, readSequence);
+        buffer.putLong(OFFSET_NEXT_SEQ, nextSequence);
+        dirty = true;
+    }
+
+    /**
+     * Check whether a complete, uncorrupted record with the expected sequence number starts at a position.
+     * @param position Offset of the record in the file.
+     * @param sequence The sequence number the record must have.
+     * @return The full record length, or 0 if there is no valid record.
+     */
+    private int validRecordLength(int position, long sequence) {
+        if (position + RECORD_HEADER_SIZE > capacity) {
+            return 0;
+        }
+        int payloadLength = buffer.getInt(position);
+        if (payloadLength < 0 || position + RECORD_HEADER_SIZE + payloadLength > capacity) {
+            return 0;
+        }
+        if (buffer.getLong(position + 8) != sequence) {
+            return 0;
+        }
+        if (buffer.getInt(position + 4) != checksum(position, payloadLength)) {
+            return 0;
+        }
+        return RECORD_HEADER_SIZE + payloadLength;
+    }
+
+    /**
+     * CRC32 of a record's sequence number, type and payload.
+     * @param position Offset of the record in the file.
+     * @param payloadLength Length of the record's payload.
+     * @return The checksum.
+     */
+    private int checksum(int position, int payloadLength) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(position + 8, RECORD_HEADER_SIZE - 8 + payloadLength));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Set the outbox file location. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param path Path to the outbox file, created if it doesn't exist.
+     */
+    public void setPath(String path) {
+        this.path = Path.of(path);
+    }
+
+    /**
+     * Set the outbox file size. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param capacity File size in bytes.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+}
@@ -0,0 +1,47 @@
+package com.cadebray;
+
+import com.pi4j.context.Context;
+import com.pi4j.io.pwm.Pwm;
+
+/**
+ * LED on a hardware PWM channel. Steady levels and blinking are both set up once in the PWM peripheral, which keeps
+ * producing the waveform without the CPU. Steady levels use a carrier fast enough not to flicker.
+ */
+public class PwmLed implements LedOutput {
+    private static final int CARRIER_HZ = 1000;
+
+    private final Pwm pwm;
+
+    /**
+     * Constructor for a PWM LED.
+     * @param pwm The provisioned hardware PWM channel the LED is wired to.
+     */
+    public PwmLed(Pwm pwm) {
+        this.pwm = pwm;
+    }
+
+    @Override
+    public void level(int dutyCycle) {
+        if (dutyCycle <= 0) {
+            pwm.off();
+        } else {
+            pwm.on(Math.min(dutyCycle, 100), CARRIER_HZ);
+        }
+    }
+
+    @Override
+    public boolean blink(int frequency) {
+        pwm.on(50, frequency);
+        return true;
+    }
+
+    @Override
+    public boolean isDimmable() {
+        return true;
+    }
+
+    @Override
+    public void shutdown(Context pi4j) {
+        pwm.shutdown(pi4j);
+    }
+}
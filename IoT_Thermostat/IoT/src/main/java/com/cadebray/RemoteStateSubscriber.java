@@ -0,0 +1,311 @@
+package com.cadebray;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a Server-Sent Events stream open to the backend so mode and setpoint changes made in the SPA reach the device
+ * as soon as they are saved. Each state event is published as a CurrentState application event. The stream is
+ * reopened with exponential backoff whenever it drops, resuming from the last event id so a change made while
+ * disconnected is still delivered, and a watchdog reopens it if even the server's heartbeats stop arriving, or if the
+ * server never answers the request at all.
+ */
+@Component
+@ConfigurationProperties(prefix = "api.events")
+public class RemoteStateSubscriber {
+    private static final long WATCHDOG_PERIOD_MS = 5000;
+
+    private final ApiService apiService;
+    private final HttpTransport transport;
+    private final ApplicationEventPublisher publisher;
+    private final ScheduledExecutorService scheduler;
+    private boolean enabled = true;
+    private long minBackoffMs = 1000;
+    private long maxBackoffMs = 60000;
+    private long idleTimeoutMs = 75000;
+
+    // Connection state. Every connection attempt gets a new generation so late callbacks from an old one are ignored.
+    private volatile boolean running = false;
+    private volatile long lastEventId = -1;
+    private volatile long lastActivity;
+    private volatile Flow.Subscription subscription;
+    private long generation = 0; // Guarded by this
+    private CompletableFuture<HttpResponse<Void>> pending; // Guarded by this, the request of the current generation
+    private long backoffMs;
+
+    /**
+     * Constructor for the remote state subscriber.
+     * @param apiService The API service used to open the stream.
+     * @param transport The shared HTTP transport, used here for its JSON parser.
+     * @param publisher Publishes each received state.
+     */
+    public RemoteStateSubscriber(ApiService apiService, HttpTransport transport, ApplicationEventPublisher publisher) {
+        this.apiService = apiService;
+        this.transport = transport;
+        this.publisher = publisher;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "api-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Open the stream and start the watchdog. Uses @PostConstruct so the configuration properties are bound first.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        backoffMs = minBackoffMs;
+        scheduler.execute(this::connect);
+        scheduler.scheduleWithFixedDelay(this::watchdog, WATCHDOG_PERIOD_MS, WATCHDOG_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Close the stream and stop reconnecting. Uses @PreDestroy so the connection is released on shutdown.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+        CompletableFuture<HttpResponse<Void>> request;
+        synchronized (this) {
+            request = pending;
+        }
+        if (request != null) {
+            request.cancel(true);
+        }
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Open a new stream. Runs on the scheduler thread.
+     */
+    private void connect() {
+        if (!running) {
+            return;
+        }
+        long attempt;
+        synchronized (this) {
+            attempt = ++generation;
+        }
+        lastActivity = System.nanoTime();
+        try {
+            CompletableFuture<HttpResponse<Void>> request = apiService.openEventStream(lastEventId, this::onResponse);
+            synchronized (this) {
+                if (attempt == generation) {
+                    pending = request;
+                }
+            }
+            request.whenComplete((response, error) -> {
+                if (error != null && !request.isCancelled()) {
+                    System.err.println("Remote state stream failed: " + error.getMessage());
+                }
+                reconnect(attempt);
+            });
+        } catch (Exception e) {
+            System.err.println("Failed to open remote state stream: " + e.getMessage());
+            reconnect(attempt);
+        }
+    }
+
+    /**
+     * Decide how to consume the response once its status is known.
+     * @param info The status and headers.
+     * @return A subscriber that parses the stream, or one that discards an error body.
+     */
+    private HttpResponse.BodySubscriber<Void> onResponse(HttpResponse.ResponseInfo info) {
+        if (info.statusCode() != 200) {
+            System.err.println("Remote state stream rejected: " + info.statusCode());
+            return HttpResponse.BodySubscribers.discarding();
+        }
+        System.out.println("Remote state stream connected");
+        backoffMs = minBackoffMs;
+        return HttpResponse.BodySubscribers.fromLineSubscriber(new EventParser());
+    }
+
+    /**
+     * Schedule the next connection attempt after the current backoff, doubling it for next time. Ignored if the
+     * connection that ended has already been replaced.
+     * @param attempt The generation of the connection that ended.
+     */
+    private void reconnect(long attempt) {
+        synchronized (this) {
+            if (!running || attempt != generation) {
+                return;
+            }
+            generation++;
+            pending = null;
+        }
+        subscription = null;
+        // Jitter so a fleet of devices doesn't reconnect in lockstep after a backend restart
+        long delay = backoffMs / 2 + ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1);
+        backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+        try {
+            scheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Shutting down
+        }
+    }
+
+    /**
+     * Reopen the stream if nothing, not even a heartbeat, has arrived for the idle timeout. This covers a request the
+     * server never answers as well, since the stream request has no timeout of its own. Nothing is done while waiting
+     * out a backoff, when there is no request.
+     */
+    private void watchdog() {
+        long attempt;
+        CompletableFuture<HttpResponse<Void>> request;
+        synchronized (this) {
+            attempt = generation;
+            request = pending;
+        }
+        if (request == null || System.nanoTime() - lastActivity <= TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs)) {
+            return;
+        }
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            System.err.println("Remote state stream went quiet, reconnecting");
+            current.cancel();
+        } else {
+            System.err.println("Remote state stream got no response, reconnecting");
+        }
+        request.cancel(true);
+        reconnect(attempt);
+    }
+
+    /**
+     * Handle a complete event.
+     * @param event The event name, state if none was given.
+     * @param id The event id, null if none was given.
+     * @param data The event data.
+     */
+    private void dispatch(String event, String id, String data) {
+        if (!"state".equals(event)) {
+            return;
+        }
+        try {
+            CurrentState state = transport.fromJson(data.getBytes(StandardCharsets.UTF_8), CurrentState.class);
+            if (id != null) {
+                lastEventId = Long.parseLong(id.trim());
+            }
+            publisher.publishEvent(state);
+        } catch (Exception e) {
+            System.err.println("Ignoring malformed remote state event: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses the text/event-stream format line by line. Lines arrive on the HttpClient's threads in order.
+     */
+    private class EventParser implements Flow.Subscriber<String> {
+        private final StringBuilder data = new StringBuilder();
+        private String event = "state";
+        private String id = null;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            RemoteStateSubscriber.this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            lastActivity = System.nanoTime();
+            if (line.isEmpty()) {
+                // A blank line ends the event
+                if (!data.isEmpty()) {
+                    dispatch(event, id, data.toString());
+                }
+                data.setLength(0);
+                event = "state";
+                id = null;
+                return;
+            }
+            if (line.startsWith(":")) {
+                return; // Comment, used for heartbeats
+            }
+
+            int colon = line.indexOf(':');
+            String field = colon < 0 ? line : line.substring(0, colon);
+            String value = colon < 0 ? "" : line.substring(colon + 1);
+            if (value.startsWith(" ")) {
+                value = value.substring(1);
+            }
+            switch (field) {
+                case "event" -> event = value;
+                case "id" -> id = value;
+                case "data" -> {
+                    if (!data.isEmpty()) data.append('\n');
+                    data.append(value);
+                }
+                default -> { } // retry and unknown fields are ignored
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // The response future completes exceptionally and schedules the reconnect
+        }
+
+        @Override
+        public void onComplete() {
+            // The response future completes and schedules the reconnect
+        }
+    }
+
+    /**
+     * Enable or disable the push stream. When disabled the device relies on polling alone. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param enabled True to keep a stream open.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Set the first reconnect delay. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param minBackoff The delay before the first reconnect attempt.
+     */
+    public void setMinBackoff(Duration minBackoff) {
+        this.minBackoffMs = minBackoff.toMillis();
+    }
+
+    /**
+     * Set the longest reconnect delay. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param maxBackoff The delay the backoff stops growing at.
+     */
+    public void setMaxBackoff(Duration maxBackoff) {
+        this.maxBackoffMs = maxBackoff.toMillis();
+    }
+
+    /**
+     * Set how long the stream may stay silent before it is considered dead. The server sends a heartbeat every
+     * 25 seconds. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param idleTimeout The idle timeout.
+     */
+    public void setIdleTimeout(Duration idleTimeout) {
+        this.idleTimeoutMs = idleTimeout.toMillis();
+    }
+}
@@ -0,0 +1,178 @@
+package com.cadebray;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+
+/**
+ * Write-behind buffer for changes to the remote thermostat state. Updates only mark fields dirty and return straight
+ * away; the dirty fields are merged into a single snapshot, last write wins, and handed to the ApiService once no
+ * change has arrived for the quiet window or the oldest change has waited for the maximum delay. Holding a button down
+ * therefore results in one update for the whole burst instead of one per step.
+ */
+@Component
+@ConfigurationProperties(prefix = "api.write-behind")
+public class RemoteStateWriter {
+    private final ApiService apiService;
+    private final Outbox outbox;
+    private long quietWindowNanos = Duration.ofMillis(500).toNanos();
+    private long maxDelayNanos = Duration.ofSeconds(2).toNanos();
+
+    // Pending changes, null when the field is clean. Guarded by this.
+    private String state;
+    private Double setTemp;
+    private Double currentTemp;
+    private long firstChange;
+    private long lastChange;
+    private boolean dirty = false;
+
+    // Counters for how well updates are being merged. Guarded by this.
+    private long updates = 0;
+    private long flushes = 0;
+
+    /**
+     * Constructor for the remote state writer.
+     * @param apiService The API service the merged updates are sent through.
+     * @param outbox The outbox the updates wait in until the backend accepts them.
+     */
+    public RemoteStateWriter(ApiService apiService, Outbox outbox) {
+        this.apiService = apiService;
+        this.outbox = outbox;
+    }
+
+    /**
+     * Queue a change to the thermostat mode.
+     * @param state The new mode, e.g. "HEAT".
+     */
+    public synchronized void setState(String state) {
+        this.state = state;
+        markDirty();
+    }
+
+    /**
+     * Queue a change to the setpoint.
+     * @param setTemp The new setpoint in degrees Fahrenheit.
+     */
+    public synchronized void setSetTemp(double setTemp) {
+        this.setTemp = setTemp;
+        markDirty();
+    }
+
+    /**
+     * Queue a change to the reported room temperature.
+     * @param currentTemp The current temperature in degrees Fahrenheit.
+     */
+    public synchronized void setCurrentTemp(double currentTemp) {
+        this.currentTemp = currentTemp;
+        markDirty();
+    }
+
+    /**
+     * Send the merged changes once the burst has settled or the oldest change has waited long enough.
+     */
+    @Scheduled(fixedDelay = 100, scheduler = SchedulingConfig.NETWORK)
+    public void flushIfDue() {
+        CurrentState snapshot;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (!dirty || (now - lastChange < quietWindowNanos && now - firstChange < maxDelayNanos)) {
+                return;
+            }
+            snapshot = takeSnapshot();
+        }
+        apiService.setState(snapshot);
+    }
+
+    /**
+     * Send any pending changes right away. Uses @PreDestroy so nothing is lost on shutdown.
+     */
+    @PreDestroy
+    public void flush() {
+        CurrentState snapshot;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            snapshot = takeSnapshot();
+        }
+        apiService.setState(snapshot);
+    }
+
+    /**
+     * Check whether local changes have yet to be accepted by the backend. Remote state older than these changes should
+     * not be applied, it would undo them until they are delivered. A change counts as pending from the moment a field
+     * is marked dirty until its update has left the outbox.
+     * @return True if any field is dirty or a state update is still waiting in the outbox.
+     */
+    public synchronized boolean hasPendingChanges() {
+        return dirty || outbox.hasPendingState();
+    }
+
+    /**
+     * Get the number of field updates queued since startup.
+     * @return Update count.
+     */
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Get the number of merged snapshots sent since startup.
+     * @return Flush count.
+     */
+    public synchronized long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Record that a field changed. Caller must hold the lock.
+     */
+    private void markDirty() {
+        long now = System.nanoTime();
+        if (!dirty) {
+            firstChange = now;
+            dirty = true;
+        }
+        lastChange = now;
+        updates++;
+    }
+
+    /**
+     * Move the dirty fields into a snapshot and mark everything clean. Caller must hold the lock.
+     * @return The merged update, clean fields are left null so the backend leaves them unchanged.
+     */
+    private CurrentState takeSnapshot() {
+        CurrentState snapshot = new CurrentState();
+        snapshot.set_id(apiService.getDeviceId());
+        snapshot.setState(state);
+        snapshot.setSetTemp(setTemp);
+        snapshot.setCurrentTemp(currentTemp);
+
+        state = null;
+        setTemp = null;
+        currentTemp = null;
+        dirty = false;
+        flushes++;
+        return snapshot;
+    }
+
+    /**
+     * Set how long no change must arrive before the pending changes are sent. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param quietWindow The quiet window.
+     */
+    public void setQuietWindow(Duration quietWindow) {
+        this.quietWindowNanos = quietWindow.toNanos();
+    }
+
+    /**
+     * Set the longest a change waits before it is sent, even if changes keep arriving. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param maxDelay The maximum delay.
+     */
+    public void setMaxDelay(Duration maxDelay) {
+        this.maxDelayNanos = maxDelay.toNanos();
+    }
+}
@@ -0,0 +1,82 @@
+package com.cadebray;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Configuration class for the scheduler lanes. Every @Scheduled method names the lane it runs on so slow work in one
+ * lane can never delay another:
+ * <ul>
+ *     <li>hardware: platform threads for timing sensitive GPIO and I2C work, and for the listeners of each sensor
+ *     sample.</li>
+ *     <li>ui: a platform thread for the display clock.</li>
+ *     <li>network: a pool of virtual threads for anything that blocks on the network or disk. Jobs without a lane
+ *     land here.</li>
+ * </ul>
+ * The LCD renderer, AHT20 bus and LED pulse keep their own dedicated threads. Pin provisioning at startup runs on the
+ * bootstrap executor so independent peripherals come up side by side instead of one after another.
+ */
+@Configuration
+public class SchedulingConfig {
+    public static final String HARDWARE = "hardwareScheduler";
+    public static final String UI = "uiScheduler";
+    public static final String NETWORK = "networkScheduler";
+    public static final String BOOTSTRAP = "bootstrapExecutor";
+
+    /**
+     * Create the hardware lane.
+     * @param poolSize Number of platform threads in the lane
+     * @return The hardware scheduler
+     */
+    @Bean(name = HARDWARE)
+    public ThreadPoolTaskScheduler hardwareScheduler(@Value("${scheduling.hardware.poolSize:2}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix("hw-");
+        scheduler.setDaemon(true);
+        return scheduler;
+    }
+
+    /**
+     * Create the UI lane.
+     * @return The UI scheduler
+     */
+    @Bean(name = UI)
+    public ThreadPoolTaskScheduler uiScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("ui-");
+        scheduler.setDaemon(true);
+        return scheduler;
+    }
+
+    /**
+     * Create the network lane. The workers are virtual threads, so a hung request only parks its own worker and the
+     * other network jobs keep running on the rest. Also registered as taskScheduler, the default for jobs that don't
+     * name a lane.
+     * @param poolSize Number of virtual worker threads in the lane
+     * @return The network scheduler
+     */
+    @Bean(name = {NETWORK, "taskScheduler"})
+    public ThreadPoolTaskScheduler networkScheduler(@Value("${scheduling.network.poolSize:4}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadFactory(Thread.ofVirtual().name("net-", 1).factory());
+        return scheduler;
+    }
+
+    /**
+     * Create the bootstrap executor. Every task gets its own virtual thread, so peripherals provisioned from
+     * @PostConstruct come up concurrently while the main thread carries on building the rest of the context.
+     * @return The bootstrap executor
+     */
+    @Bean(name = BOOTSTRAP)
+    public SimpleAsyncTaskExecutor bootstrapExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("boot-");
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+}
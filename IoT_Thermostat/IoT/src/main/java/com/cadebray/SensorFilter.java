@@ -0,0 +1,191 @@
+package com.cadebray;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streaming filter between the sensor and the consumers that act on its trend. Each raw sample first goes through a
+ * median of the last three samples, which drops a single-sample spike entirely, and then an exponential moving average
+ * that smooths the remaining noise. Both are a few arithmetic operations per sample on fixed state. The result is
+ * published as a FilteredSensorEvent right after the raw event. The history, the log and the LCD keep using the raw
+ * samples, the LEDs and the telemetry upload use the filtered ones.
+ * <p>
+ * The hysteresis band for the LEDs and the deadband for telemetry are configured here too, so the whole filter stage
+ * is tuned in one place.
+ */
+@Component
+@ConfigurationProperties(prefix = "sensor.filter")
+public class SensorFilter {
+    // After a gap this long the old samples say nothing about the new ones, so the filter starts over
+    private static final long RESET_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final ApplicationEventPublisher publisher;
+    private final AtomicReference<FilteredSensorEvent> latest = new AtomicReference<>();
+    private double smoothing = 0.2;
+    private double ledHysteresis = 0.5;
+    private double temperatureDeadband = 0.2;
+    private double humidityDeadband = 1.0;
+    private Duration heartbeat = Duration.ofSeconds(60);
+
+    // Guarded by this
+    private final double[] temperatures = new double[3];
+    private final double[] humidities = new double[3];
+    private int seen = 0;
+    private long lastNanos;
+    private double temperature;
+    private double humidity;
+
+    /**
+     * Constructor for the sensor filter.
+     * @param publisher This is the publisher the filtered samples are published with.
+     */
+    public SensorFilter(ApplicationEventPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Filter every published raw sample and publish the result.
+     * @param reading The sample published by the SensorSampler.
+     */
+    @EventListener
+    public void filter(SensorReadEvent reading) {
+        FilteredSensorEvent filtered;
+        synchronized (this) {
+            if (seen > 0 && reading.timestampNanos() - lastNanos > RESET_NANOS) {
+                seen = 0;
+            }
+            lastNanos = reading.timestampNanos();
+            int slot = seen % 3;
+            temperatures[slot] = reading.getFahrenheit();
+            humidities[slot] = reading.getHumidity();
+            seen++;
+
+            double medianTemperature = seen < 3 ? reading.getFahrenheit() : median(temperatures);
+            double medianHumidity = seen < 3 ? reading.getHumidity() : median(humidities);
+            if (seen == 1) {
+                temperature = medianTemperature;
+                humidity = medianHumidity;
+            } else {
+                temperature += smoothing * (medianTemperature - temperature);
+                humidity += smoothing * (medianHumidity - humidity);
+            }
+            // Keep the counter cycling through the window instead of growing forever
+            if (seen == 6) seen = 3;
+            filtered = new FilteredSensorEvent(temperature, humidity, reading);
+        }
+        latest.set(filtered);
+        publisher.publishEvent(filtered);
+    }
+
+    /**
+     * Get the median of three values without sorting.
+     * @param values The three values.
+     * @return The middle one.
+     */
+    private static double median(double[] values) {
+        double a = values[0], b = values[1], c = values[2];
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    /**
+     * Get the most recent filtered sample as long as it is not older than the given age.
+     * @param maxAge The oldest sample the caller is willing to accept.
+     * @return The latest filtered sample.
+     * @throws IllegalStateException If there is no sample or the latest sample is older than maxAge.
+     */
+    public FilteredSensorEvent getLatest(Duration maxAge) {
+        FilteredSensorEvent sample = latest.get();
+        if (sample == null) {
+            throw new IllegalStateException("No filtered sensor sample available yet");
+        }
+        if (sample.ageNanos() > maxAge.toNanos()) {
+            throw new IllegalStateException("Filtered sensor sample is stale: " + Duration.ofNanos(sample.ageNanos()));
+        }
+        return sample;
+    }
+
+    /**
+     * Get how far past the setpoint the temperature must fall back before a satisfied LED starts pulsing again.
+     * @return Hysteresis band in degrees Fahrenheit.
+     */
+    public double getLedHysteresis() {
+        return ledHysteresis;
+    }
+
+    /**
+     * Get how far the filtered temperature must move before it is uploaded again.
+     * @return Deadband in degrees Fahrenheit.
+     */
+    public double getTemperatureDeadband() {
+        return temperatureDeadband;
+    }
+
+    /**
+     * Get how far the filtered humidity must move before it is uploaded again.
+     * @return Deadband in percent.
+     */
+    public double getHumidityDeadband() {
+        return humidityDeadband;
+    }
+
+    /**
+     * Get the longest time between uploads while the readings stay inside the deadband.
+     * @return The heartbeat interval.
+     */
+    public Duration getHeartbeat() {
+        return heartbeat;
+    }
+
+    /**
+     * Set the weight of each new sample in the moving average. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param smoothing Weight between 0 (never moves) and 1 (no smoothing).
+     */
+    public void setSmoothing(double smoothing) {
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("sensor.filter.smoothing must be in (0, 1]: " + smoothing);
+        }
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Set the LED hysteresis band. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param ledHysteresis Band in degrees Fahrenheit, 0 to switch exactly at the setpoint.
+     */
+    public void setLedHysteresis(double ledHysteresis) {
+        this.ledHysteresis = ledHysteresis;
+    }
+
+    /**
+     * Set the telemetry temperature deadband. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param temperatureDeadband Deadband in degrees Fahrenheit, 0 to upload every sample.
+     */
+    public void setTemperatureDeadband(double temperatureDeadband) {
+        this.temperatureDeadband = temperatureDeadband;
+    }
+
+    /**
+     * Set the telemetry humidity deadband. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param humidityDeadband Deadband in percent, 0 to upload every sample.
+     */
+    public void setHumidityDeadband(double humidityDeadband) {
+        this.humidityDeadband = humidityDeadband;
+    }
+
+    /**
+     * Set the telemetry heartbeat. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param heartbeat Longest time between uploads.
+     */
+    public void setHeartbeat(Duration heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+}
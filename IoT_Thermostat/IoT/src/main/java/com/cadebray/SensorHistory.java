@@ -0,0 +1,115 @@
+package com.cadebray;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory history of the sensor readings at three resolutions: 1 second buckets for the last 10 minutes, 1 minute
+ * buckets for the last 24 hours and 15 minute buckets for the last 30 days. Every sample is folded into all three
+ * tiers as it is published, so the coarse tiers never have to be rebuilt from the fine ones. The tiers are fixed size
+ * and take about 300 KB together, however long the device runs.
+ */
+@Component
+public class SensorHistory {
+    private final HistoryTier[] tiers = {
+            new HistoryTier(TimeUnit.SECONDS.toMillis(1), 600),
+            new HistoryTier(TimeUnit.MINUTES.toMillis(1), 1_440),
+            new HistoryTier(TimeUnit.MINUTES.toMillis(15), 2_880)
+    };
+    private final MeterRegistry registry;
+
+    /**
+     * Constructor for SensorHistory.
+     * @param registry The registry the history's memory use is reported to.
+     */
+    public SensorHistory(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Report the memory held by the tiers. Uses @PostConstruct so the gauge never sees a partly constructed history.
+     */
+    @PostConstruct
+    public void registerMemoryGauge() {
+        Gauge.builder("thermostat.history.memory", this, SensorHistory::getFootprintBytes)
+                .description("Memory held by the in-memory sensor history")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Record every published sensor sample in each tier. Nothing is allocated here, the sample only updates the
+     * running min, max and sum of its buckets.
+     * @param reading The sample published by the SensorSampler.
+     */
+    @EventListener
+    public void record(SensorReadEvent reading) {
+        long epochMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(reading.ageNanos());
+        for (HistoryTier tier : tiers) {
+            tier.add(epochMillis, reading.getFahrenheit(), reading.getHumidity());
+        }
+    }
+
+    /**
+     * Fold a sample read back from the sensor log into each tier, oldest first, e.g. to refill the history after a
+     * restart. Samples that a tier no longer reaches are skipped.
+     * @param epochMillis Wall clock time of the sample in milliseconds since the epoch.
+     * @param temperature Temperature in degrees Fahrenheit.
+     * @param humidity Relative humidity in percent.
+     */
+    public void restore(long epochMillis, double temperature, double humidity) {
+        for (HistoryTier tier : tiers) {
+            tier.restore(epochMillis, temperature, humidity);
+        }
+    }
+
+    /**
+     * Get a range of the history from the finest tier that still reaches back to the start of the range.
+     * @param fromMillis Start of the range in milliseconds since the epoch.
+     * @param toMillis End of the range in milliseconds since the epoch.
+     * @return The buckets in the range, from the 15 minute tier if no tier reaches back far enough.
+     */
+    public HistoryRange query(long fromMillis, long toMillis) {
+        long age = System.currentTimeMillis() - fromMillis;
+        for (HistoryTier tier : tiers) {
+            if (age <= tier.getRetentionMillis()) {
+                return tier.query(fromMillis, toMillis);
+            }
+        }
+        return tiers[tiers.length - 1].query(fromMillis, toMillis);
+    }
+
+    /**
+     * Get a range of the history at a given resolution.
+     * @param fromMillis Start of the range in milliseconds since the epoch.
+     * @param toMillis End of the range in milliseconds since the epoch.
+     * @param resolutionSeconds Width of the buckets, one of 1, 60 or 900.
+     * @return The buckets in the range.
+     * @throws IllegalArgumentException If there is no tier at that resolution.
+     */
+    public HistoryRange query(long fromMillis, long toMillis, long resolutionSeconds) {
+        for (HistoryTier tier : tiers) {
+            if (tier.getResolutionMillis() == TimeUnit.SECONDS.toMillis(resolutionSeconds)) {
+                return tier.query(fromMillis, toMillis);
+            }
+        }
+        throw new IllegalArgumentException("No history at a resolution of " + resolutionSeconds
+                + " seconds, use 1, 60 or 900");
+    }
+
+    /**
+     * Get the memory held by all tiers.
+     * @return Size of the bucket arrays in bytes.
+     */
+    public long getFootprintBytes() {
+        long bytes = 0;
+        for (HistoryTier tier : tiers) {
+            bytes += tier.getFootprintBytes();
+        }
+        return bytes;
+    }
+}
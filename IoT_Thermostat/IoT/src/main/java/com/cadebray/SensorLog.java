@@ -0,0 +1,546 @@
+package com.cadebray;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of every sensor sample on local storage, kept long after the in-memory history has dropped it.
+ * Samples are compressed into 4 KiB TimeSeriesBlocks, which hold roughly seven minutes of one second samples each.
+ * <p>
+ * The log is a directory of segment files named after the time of their first sample, each a fixed number of blocks.
+ * Published samples are only handed over to a small in-memory queue, so the sampling path never waits on the SD card.
+ * The periodic flush on the network lane encodes them into the block being filled, which lives in memory and is
+ * written whole over its own page-aligned slot when it fills up and on every flush.
+ * <p>
+ * Rewriting a partial block in place would lose all of it to a write torn by a power cut, so every flush first writes
+ * the partial block to a shadow file, tagged with its segment and slot, and forces it before overwriting the slot.
+ * Whichever of the two writes is interrupted, the other copy is intact, and a power cut loses at most the samples of
+ * one flush interval. On startup writing continues at the first invalid block of the newest segment, or carries on
+ * with the partial block from the shadow copy when that copy belongs to the last slot and is at least as new. A torn
+ * full block fails its CRC and is skipped. Once a segment is full a new one is started, and the oldest segments are
+ * deleted when the log grows past its size limit or its retention.
+ * <p>
+ * Reads map the segments read-only and skip every block whose header doesn't overlap the range, so only the blocks
+ * in the range are decoded.
+ */
+@Component
+@ConfigurationProperties(prefix = "history.log")
+public class SensorLog {
+    private static final String SUFFIX = ".tsl";
+    private static final String SHADOW = "partial.tss";
+    // The shadow file holds [long segment start][int slot][int CRC32 of both and the block][block]
+    private static final int SHADOW_HEADER_SIZE = 16;
+    // Samples waiting for the next flush, about 17 minutes at one a second before the oldest are overwritten
+    private static final int PENDING_CAPACITY = 1024;
+
+    private final SensorHistory history;
+    private final AsyncTaskExecutor bootstrap;
+    private Path directory = Path.of(System.getProperty("user.home"), ".thermostat", "history");
+    private int segmentBlocks = 256;
+    private long maxSize = 128L * 1024 * 1024;
+    private Duration retention = Duration.ofDays(365);
+    private Duration backfill = Duration.ofDays(30);
+
+    // Handed over by record, has its own lock so the sampling path never waits behind a write
+    private final TelemetryBuffer pending = new TelemetryBuffer(PENDING_CAPACITY);
+
+    // Guarded by this
+    private final TimeSeriesBlock current = new TimeSeriesBlock();
+    private final ByteBuffer shadowBuffer = ByteBuffer.allocate(SHADOW_HEADER_SIZE + TimeSeriesBlock.SIZE);
+    private FileChannel channel;
+    private FileChannel shadow;
+    private Path segment;
+    private int blockIndex;
+    private boolean dirty = false;
+    private boolean sealed = false; // A full block was written since the segment was last forced
+
+    /**
+     * Constructor for SensorLog.
+     * @param history The in-memory history, refilled from the log on startup.
+     * @param bootstrap Executor the refill runs on, so it doesn't hold up startup.
+     */
+    public SensorLog(SensorHistory history, @Qualifier(SchedulingConfig.BOOTSTRAP) AsyncTaskExecutor bootstrap) {
+        this.history = history;
+        this.bootstrap = bootstrap;
+    }
+
+    /**
+     * Reopen the newest segment, recover its partial block, trim the log to the current limits and refill the
+     * in-memory history from the log in the background. Uses @PostConstruct so the configuration properties are bound
+     * first.
+     */
+    @PostConstruct
+    public synchronized void open() {
+        try {
+            Files.createDirectories(directory);
+            shadow = FileChannel.open(directory.resolve(SHADOW), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            List<Path> segments = listSegments();
+            if (!segments.isEmpty()) {
+                segment = segments.getLast();
+                channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                blockIndex = countValidBlocks(channel);
+                restoreShadow();
+            }
+            applyRetention(System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open sensor log " + directory, e);
+        }
+
+        long now = System.currentTimeMillis();
+        bootstrap.submitCompletable(() -> scan(now - backfill.toMillis(), now, history::restore))
+                .whenComplete((samples, error) -> {
+                    if (error != null) {
+                        System.err.println("Error restoring history from the sensor log: " + error.getMessage());
+                    } else {
+                        System.out.println("Restored " + samples + " samples from the sensor log");
+                    }
+                });
+    }
+
+    /**
+     * Write out the partial block and release the segment. Uses @PreDestroy to flush before destruction.
+     */
+    @PreDestroy
+    public synchronized void close() {
+        flush();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            if (shadow != null) {
+                shadow.close();
+                shadow = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing sensor log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Log every published sensor sample. The sample is only queued here, without taking the log's lock, and is
+     * encoded and written by the next flush.
+     * @param reading The sample published by the SensorSampler.
+     */
+    @EventListener
+    public void record(SensorReadEvent reading) {
+        long epochMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(reading.ageNanos());
+        pending.add(epochMillis, reading.getFahrenheit(), reading.getHumidity());
+    }
+
+    /**
+     * Add a sample to the block being filled. Nothing is written here unless the block is full, in which case it is
+     * written to its slot and a new block is started, moving on to a new segment when this one is full. Called by
+     * flush for the queued samples, so it may block on the SD card and must not be called from the sampling path.
+     * @param epochMillis Wall clock time of the sample in milliseconds since the epoch.
+     * @param temperature Temperature in degrees Fahrenheit.
+     * @param humidity Relative humidity in percent.
+     */
+    public synchronized void append(long epochMillis, double temperature, double humidity) {
+        try {
+            if (current.getCount() == 0 && (channel == null || blockIndex >= segmentBlocks)) {
+                rotate(epochMillis);
+            }
+            if (!current.append(epochMillis, temperature, humidity)) {
+                writeBlock();
+                sealed = true;
+                current.reset();
+                blockIndex++;
+                if (blockIndex >= segmentBlocks) {
+                    rotate(epochMillis);
+                }
+                current.append(epochMillis, temperature, humidity);
+            }
+            dirty = true;
+        } catch (IOException e) {
+            // Reset so a failing card costs the samples of one block instead of the whole log
+            System.err.println("Error writing sensor log: " + e.getMessage());
+            current.reset();
+        }
+    }
+
+    /**
+     * Encode the queued samples, write the partial block to the shadow file and then over its slot, and force the
+     * segment to disk. Runs on the network lane since it blocks on the SD card.
+     */
+    @Scheduled(fixedDelayString = "${history.log.flushInterval:30000}", scheduler = SchedulingConfig.NETWORK)
+    public synchronized void flush() {
+        drain();
+        if (!dirty || channel == null) {
+            return;
+        }
+        try {
+            if (current.getCount() > 0) {
+                if (sealed) {
+                    // Blocks filled since the last flush must be on disk before the shadow moves on to the next slot
+                    channel.force(false);
+                }
+                writeShadow();
+                writeBlock();
+            }
+            channel.force(false);
+            sealed = false;
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Error flushing sensor log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Move the samples queued by record into the block being filled.
+     */
+    private void drain() {
+        int queued = pending.size();
+        if (queued == 0) {
+            return;
+        }
+        TelemetryBatch batch = pending.peek(queued);
+        for (int i = 0; i < batch.size(); i++) {
+            append(batch.getT()[i], batch.getTemp()[i], batch.getHumidity()[i]);
+        }
+        pending.discard(batch.size());
+    }
+
+    /**
+     * Visit every logged sample in a time range, oldest segment first, including the samples not yet flushed. Queued
+     * samples are encoded first, so this may write a full block.
+     * @param fromMillis Start of the range in milliseconds since the epoch, inclusive.
+     * @param toMillis End of the range in milliseconds since the epoch, inclusive.
+     * @param visitor Receives each sample in the range.
+     * @return The number of samples visited.
+     */
+    public int scan(long fromMillis, long toMillis, TimeSeriesBlock.SampleVisitor visitor) {
+        Path open;
+        int openBlocks;
+        synchronized (this) {
+            drain();
+            // Blocks before blockIndex are never written again, so the files can be read without holding the lock
+            open = segment;
+            openBlocks = blockIndex;
+        }
+
+        int visited = 0;
+        for (Path file : listSegments()) {
+            try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+                long blocks = reader.size() / TimeSeriesBlock.SIZE;
+                if (file.equals(open)) {
+                    blocks = Math.min(blocks, openBlocks);
+                }
+                if (blocks == 0) continue;
+                MappedByteBuffer mapped = reader.map(FileChannel.MapMode.READ_ONLY, 0, blocks * TimeSeriesBlock.SIZE);
+                for (int i = 0; i < blocks; i++) {
+                    int base = i * TimeSeriesBlock.SIZE;
+                    if (TimeSeriesBlock.isValid(mapped, base)) {
+                        visited += TimeSeriesBlock.decode(mapped, base, fromMillis, toMillis, visitor);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted by retention since the directory was listed
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read sensor log " + file, e);
+            }
+        }
+
+        synchronized (this) {
+            if (current.getCount() > 0 && segment != null && segment.equals(open) && blockIndex == openBlocks) {
+                visited += TimeSeriesBlock.decode(current.finish(), 0, fromMillis, toMillis, visitor);
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Read the logged samples in a time range at full resolution.
+     * @param fromMillis Start of the range in milliseconds since the epoch, inclusive.
+     * @param toMillis End of the range in milliseconds since the epoch, inclusive.
+     * @param limit Most samples to return, the oldest are kept.
+     * @return The samples, column-wise.
+     */
+    public TelemetryBatch read(long fromMillis, long toMillis, int limit) {
+        SampleColumns columns = new SampleColumns(limit);
+        scan(fromMillis, toMillis, columns);
+        return columns.toBatch();
+    }
+
+    /**
+     * Write the block being filled over its slot in the current segment.
+     * @throws IOException If the write fails.
+     */
+    private void writeBlock() throws IOException {
+        ByteBuffer block = current.finish();
+        long position = (long) blockIndex * TimeSeriesBlock.SIZE;
+        while (block.hasRemaining()) {
+            position += channel.write(block, position);
+        }
+    }
+
+    /**
+     * Write a copy of the block being filled to the shadow file, tagged with its segment and slot, and force it.
+     * @throws IOException If the write fails.
+     */
+    private void writeShadow() throws IOException {
+        shadowBuffer.clear();
+        shadowBuffer.putLong(segmentStart(segment)).putInt(blockIndex).putInt(0).put(current.finish());
+        shadowBuffer.putInt(12, shadowChecksum());
+        shadowBuffer.flip();
+        long position = 0;
+        while (shadowBuffer.hasRemaining()) {
+            position += shadow.write(shadowBuffer, position);
+        }
+        shadow.force(false);
+    }
+
+    /**
+     * Continue the partial block from the shadow copy when it belongs to the slot writing resumes at, which means the
+     * copy in the slot was torn or never written, or to the last valid slot unless the copy there holds more samples.
+     * The partial block then keeps filling after a restart instead of leaving its slot half empty, and the next flush
+     * writes it over its slot.
+     * @throws IOException If the shadow file or the segment can't be read.
+     */
+    private void restoreShadow() throws IOException {
+        shadowBuffer.clear();
+        while (shadowBuffer.hasRemaining() && shadow.read(shadowBuffer, shadowBuffer.position()) > 0) {
+            // Read the whole copy
+        }
+        if (shadowBuffer.hasRemaining() || shadowBuffer.getInt(12) != shadowChecksum()
+                || shadowBuffer.getLong(0) != segmentStart(segment)
+                || !TimeSeriesBlock.isValid(shadowBuffer, SHADOW_HEADER_SIZE)) {
+            return;
+        }
+        int slot = shadowBuffer.getInt(8);
+        int samples = TimeSeriesBlock.decode(shadowBuffer, SHADOW_HEADER_SIZE, Long.MIN_VALUE, Long.MAX_VALUE,
+                (t, temperature, humidity) -> { });
+        if (slot != blockIndex && (slot != blockIndex - 1 || samples < samplesInSlot(slot))) {
+            return;
+        }
+        current.reset();
+        TimeSeriesBlock.decode(shadowBuffer, SHADOW_HEADER_SIZE, Long.MIN_VALUE, Long.MAX_VALUE,
+                (t, temperature, humidity) -> current.append(t, temperature, humidity));
+        blockIndex = slot;
+        dirty = true;
+        System.out.println("Continuing the partial sensor log block from its shadow copy, " + samples + " samples");
+    }
+
+    /**
+     * CRC32 of the tag and block in the shadow buffer.
+     * @return The checksum.
+     */
+    private int shadowChecksum() {
+        CRC32 crc = new CRC32();
+        crc.update(shadowBuffer.slice(0, 12));
+        crc.update(shadowBuffer.slice(SHADOW_HEADER_SIZE, TimeSeriesBlock.SIZE));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Count the samples in a slot of the current segment.
+     * @param slot Index of the block.
+     * @return Its sample count, 0 if it is invalid.
+     * @throws IOException If the segment can't be read.
+     */
+    private int samplesInSlot(int slot) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(TimeSeriesBlock.SIZE);
+        long position = (long) slot * TimeSeriesBlock.SIZE;
+        while (block.hasRemaining() && channel.read(block, position + block.position()) > 0) {
+            // Read the whole block
+        }
+        return TimeSeriesBlock.isValid(block, 0)
+                ? TimeSeriesBlock.decode(block, 0, Long.MIN_VALUE, Long.MAX_VALUE, (t, temperature, humidity) -> { })
+                : 0;
+    }
+
+    /**
+     * Close the current segment and start a new one named after the first sample it will hold, then apply retention.
+     * @param epochMillis Time of the first sample in the new segment.
+     * @throws IOException If the new segment can't be created.
+     */
+    private void rotate(long epochMillis) throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+            segment = null;
+            sealed = false;
+        }
+        // Names only collide if the clock went backwards, the new segment is still named to sort last
+        List<Path> segments = listSegments();
+        long start = segments.isEmpty() ? epochMillis
+                : Math.max(epochMillis, segmentStart(segments.getLast()) + 1);
+        Path next = directory.resolve(String.format("%013d%s", start, SUFFIX));
+        channel = FileChannel.open(next, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = next;
+        blockIndex = 0;
+        applyRetention(epochMillis);
+    }
+
+    /**
+     * Delete the oldest segments while the log is over its size limit, or while the segment after them started before
+     * the retention period. The current segment is always kept.
+     * @param nowMillis Current time in milliseconds since the epoch.
+     * @throws IOException If the directory can't be read.
+     */
+    private void applyRetention(long nowMillis) throws IOException {
+        List<Path> segments = listSegments();
+        long total = 0;
+        for (Path file : segments) {
+            total += Files.size(file);
+        }
+        long cutoff = nowMillis - retention.toMillis();
+        for (int i = 0; i < segments.size() - 1; i++) {
+            Path oldest = segments.get(i);
+            if (total <= maxSize && segmentStart(segments.get(i + 1)) > cutoff) {
+                break;
+            }
+            total -= Files.size(oldest);
+            Files.deleteIfExists(oldest);
+            System.out.println("Deleted sensor log segment " + oldest.getFileName());
+        }
+    }
+
+    /**
+     * List the segment files, oldest first.
+     * @return Paths of the segments sorted by name.
+     */
+    private List<Path> listSegments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list sensor log " + directory, e);
+        }
+    }
+
+    /**
+     * Get the time of the first sample in a segment from its name.
+     * @param file The segment.
+     * @return Milliseconds since the epoch.
+     */
+    private static long segmentStart(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Count the valid blocks at the start of a segment, which is where writing continues after a restart.
+     * @param segment The open segment.
+     * @return Index of the first invalid block.
+     * @throws IOException If the segment can't be read.
+     */
+    private int countValidBlocks(FileChannel segment) throws IOException {
+        long blocks = Math.min(segment.size() / TimeSeriesBlock.SIZE, segmentBlocks);
+        if (blocks == 0) {
+            return 0;
+        }
+        MappedByteBuffer mapped = segment.map(FileChannel.MapMode.READ_ONLY, 0, blocks * TimeSeriesBlock.SIZE);
+        int valid = 0;
+        while (valid < blocks && TimeSeriesBlock.isValid(mapped, valid * TimeSeriesBlock.SIZE)) {
+            valid++;
+        }
+        return valid;
+    }
+
+    /**
+     * Collects scanned samples into growing primitive columns.
+     */
+    private static final class SampleColumns implements TimeSeriesBlock.SampleVisitor {
+        private final int limit;
+        private long[] t = new long[256];
+        private double[] temp = new double[256];
+        private double[] humidity = new double[256];
+        private int size = 0;
+
+        private SampleColumns(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void accept(long epochMillis, double temperature, double humidity) {
+            if (size == limit) return;
+            if (size == t.length) {
+                int grown = (int) Math.min((long) size * 2, limit);
+                t = Arrays.copyOf(t, grown);
+                temp = Arrays.copyOf(temp, grown);
+                this.humidity = Arrays.copyOf(this.humidity, grown);
+            }
+            t[size] = epochMillis;
+            temp[size] = temperature;
+            this.humidity[size] = humidity;
+            size++;
+        }
+
+        TelemetryBatch toBatch() {
+            return new TelemetryBatch(Arrays.copyOf(t, size), Arrays.copyOf(temp, size),
+                    Arrays.copyOf(humidity, size));
+        }
+    }
+
+    /**
+     * Set the directory holding the segments. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param directory Path of the log directory.
+     */
+    public void setDirectory(String directory) {
+        this.directory = Path.of(directory);
+    }
+
+    /**
+     * Set the number of 4 KiB blocks in each segment. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param segmentBlocks Blocks per segment.
+     */
+    public void setSegmentBlocks(int segmentBlocks) {
+        if (segmentBlocks <= 0) {
+            throw new IllegalArgumentException("history.log.segmentBlocks must be positive: " + segmentBlocks);
+        }
+        this.segmentBlocks = segmentBlocks;
+    }
+
+    /**
+     * Set the size the log is trimmed to. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param maxSize Total size of the segments in bytes.
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Set how long samples are kept. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param retention Age after which a segment is deleted.
+     */
+    public void setRetention(Duration retention) {
+        this.retention = retention;
+    }
+
+    /**
+     * Set how far back the in-memory history is refilled from the log on startup. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param backfill Age of the oldest sample restored.
+     */
+    public void setBackfill(Duration backfill) {
+        this.backfill = backfill;
+    }
+}
@@ -1,48 +1,52 @@
 package com.cadebray;
 
-import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.scheduling.annotation.Scheduled;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 @Component
 public class sensorPoller {
-    private final AHT20 aht20;
-    private final ApplicationEventPublisher publisher;
     private final ApiService apiService;
+    private final SensorFilter sensorFilter;
+    private final Counter uploadsAvoided;
+    // Last uploaded values, guarded by this
+    private double sentTemperature = Double.NaN;
+    private double sentHumidity = Double.NaN;
+    private long sentNanos;
 
     /**
      * Constructor for the sensor poller
-     * @param aht20 This is the sensor itself.
-     * @param publisher This is the publisher to be used for publishing events.
+     * @param apiService This is the API service that batches readings for the backend.
+     * @param sensorFilter This is the filter stage holding the telemetry deadband and heartbeat.
+     * @param registry This is the registry the skipped uploads are counted in.
      */
-    public sensorPoller(AHT20 aht20, ApplicationEventPublisher publisher, ApiService apiService) {
-        this.aht20 = aht20;
-        this.publisher = publisher;
+    public sensorPoller(ApiService apiService, SensorFilter sensorFilter, MeterRegistry registry) {
         this.apiService = apiService;
+        this.sensorFilter = sensorFilter;
+        this.uploadsAvoided = Counter.builder("thermostat.filter.uploads.avoided")
+                .description("Telemetry samples not uploaded because the filtered reading stayed inside the deadband")
+                .baseUnit("samples")
+                .register(registry);
     }
 
     /**
-     * This is the poller call on a one-second interval. It wraps the sensor value and publishes it for event listeners.
+     * Queue the filtered sensor sample for the next telemetry batch once it has moved out of the deadband around the
+     * last uploaded one, or the heartbeat has passed. The upload itself is handled by ApiService.
+     * @param reading The filtered sample published by the SensorFilter.
      */
-    @Scheduled(fixedDelay = 1000)
-    public void poll() {
-        double[] reading;
-        try {
-            reading = aht20.readSensor();
-        } catch (Exception e) {
-            // Sensor read error, skip this cycle
+    @EventListener
+    public synchronized void pollForRemote(FilteredSensorEvent reading) {
+        long now = System.nanoTime();
+        boolean moved = !(Math.abs(reading.getFahrenheit() - sentTemperature) < sensorFilter.getTemperatureDeadband())
+                || !(Math.abs(reading.getHumidity() - sentHumidity) < sensorFilter.getHumidityDeadband());
+        if (!moved && now - sentNanos < sensorFilter.getHeartbeat().toNanos()) {
+            uploadsAvoided.increment();
             return;
         }
-        publisher.publishEvent(new SensorReadEvent(reading));
-    }
-
-    @Scheduled(fixedDelay = 10000)
-    public void pollForRemote() {
-        try {
-            CurrentState state = new CurrentState();
-            state.set_id(apiService.getDeviceId());
-            state.setCurrentTemp(aht20.readSensor()[1]);
-            apiService.setState(state);
-        } catch (Exception _) {}
+        sentTemperature = reading.getFahrenheit();
+        sentHumidity = reading.getHumidity();
+        sentNanos = now;
+        apiService.recordTelemetry(System.currentTimeMillis(), reading.getFahrenheit(), reading.getHumidity());
     }
 }
@@ -1,19 +1,25 @@
 package com.cadebray;
 
 /**
- * This record is designed with future functionality in mind. We're ignoring unused because ultimately there is minimal
- * risk to this object going unused. Additionally, this record can hold more values as needed in the future.
- * @param reading
+ * This record is a single immutable AHT20 sample. Every value is a primitive field so consumers can't mix up indexes
+ * and nothing is shared between samples. We're ignoring unused because some fields are only kept for diagnostics.
+ * @param humidity Relative humidity in percent.
+ * @param fahrenheit Temperature in degrees Fahrenheit.
+ * @param celsius Temperature in degrees Celsius.
+ * @param rawHumidity The 20-bit humidity count reported by the sensor.
+ * @param rawTemperature The 20-bit temperature count reported by the sensor.
+ * @param timestampNanos Monotonic System.nanoTime() at which the sample was taken.
  */
 @SuppressWarnings("unused")
-public record SensorReadEvent(double[] reading) {
+public record SensorReadEvent(double humidity, double fahrenheit, double celsius,
+                              int rawHumidity, int rawTemperature, long timestampNanos) {
 
     /**
      * Get the humidity reading from the event
      * @return double value representing the percentage of humidity.
      */
     public double getHumidity() {
-        return reading[0];
+        return humidity;
     }
 
     /**
@@ -21,7 +27,7 @@ public record SensorReadEvent(double[] reading) {
      * @return double value representing the Fahrenheit reading
      */
     public double getFahrenheit() {
-        return reading[1];
+        return fahrenheit;
     }
 
     /**
@@ -29,6 +35,14 @@ public record SensorReadEvent(double[] reading) {
      * @return double value representing the Celsius reading
      */
     public double getCelsius() {
-        return reading[2];
+        return celsius;
+    }
+
+    /**
+     * Get how long ago this sample was taken.
+     * @return Age of the sample in nanoseconds.
+     */
+    public long ageNanos() {
+        return System.nanoTime() - timestampNanos;
     }
 }
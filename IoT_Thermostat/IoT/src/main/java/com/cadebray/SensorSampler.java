@@ -0,0 +1,119 @@
+package com.cadebray;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This is the single owner of the AHT20 sensor. It is the only component allowed to drive the I2C bus and every other
+ * consumer reads the cached latest sample instead of triggering its own measurement.
+ */
+@Component
+public class SensorSampler {
+    private final AHT20 aht20;
+    private final ApplicationEventPublisher publisher;
+    private final AsyncTaskExecutor hardware;
+    private final AtomicReference<SensorReadEvent> latest = new AtomicReference<>();
+    private final AtomicBoolean inFlight = new AtomicBoolean(false);
+    private final Timer readTimer;
+    private final Counter failures;
+
+    /**
+     * Constructor for the sensor sampler.
+     * @param aht20 This is the sensor itself.
+     * @param publisher This is the publisher to be used for publishing events.
+     * @param hardware This is the hardware lane the samples are published on, so the listeners stay off the bus thread.
+     * @param registry This is the registry the sensor metrics are reported to.
+     */
+    public SensorSampler(AHT20 aht20, ApplicationEventPublisher publisher,
+                         @Qualifier(SchedulingConfig.HARDWARE) AsyncTaskExecutor hardware, MeterRegistry registry) {
+        this.aht20 = aht20;
+        this.publisher = publisher;
+        this.hardware = hardware;
+        this.readTimer = Timer.builder("thermostat.sensor.read")
+                .description("Time from starting an AHT20 measurement to a valid sample")
+                .register(registry);
+        this.failures = Counter.builder("thermostat.sensor.failures")
+                .description("AHT20 measurements that failed after all retries")
+                .register(registry);
+        FunctionCounter.builder("thermostat.sensor.retries", aht20, AHT20::getRetries)
+                .description("AHT20 measurements re-triggered after a busy timeout or CRC failure")
+                .register(registry);
+    }
+
+    /**
+     * This is the sampler call on a one-second interval. It starts an asynchronous measurement and, once the sensor
+     * delivers a valid frame, caches the sample and publishes it for event listeners. The scheduler thread only
+     * kicks off the measurement and never waits on the sensor. The completion is handed back to the hardware lane, so
+     * the listeners run there and the AHT20 bus thread only ever does I2C work.
+     */
+    @Scheduled(fixedDelay = 1000, scheduler = SchedulingConfig.HARDWARE)
+    public void sample() {
+        if (!inFlight.compareAndSet(false, true)) {
+            // The previous measurement is still retrying, don't queue another one behind it
+            return;
+        }
+        long start = System.nanoTime();
+        aht20.measureAsync().whenCompleteAsync((event, error) -> {
+            try {
+                if (error != null) {
+                    // Sensor read error, keep the previous sample and skip this cycle
+                    failures.increment();
+                    System.err.println("Sensor read failed: " + error.getMessage());
+                    return;
+                }
+                readTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                latest.set(event);
+                publisher.publishEvent(event);
+            } finally {
+                // Cleared once the listeners are done, so the lane's threads never publish two samples at once
+                inFlight.set(false);
+            }
+        }, hardware);
+    }
+
+    /**
+     * Check whether the sensor is still on its first measurement, with nothing sampled and nothing failed yet.
+     * @return True until the first measurement completes either way.
+     */
+    public boolean isWaitingForFirstSample() {
+        return latest.get() == null && failures.count() == 0;
+    }
+
+    /**
+     * Get the most recent sample regardless of its age.
+     * @return The latest cached sample.
+     * @throws IllegalStateException If the sensor has not produced a sample yet.
+     */
+    public SensorReadEvent getLatest() {
+        SensorReadEvent sample = latest.get();
+        if (sample == null) {
+            throw new IllegalStateException("No sensor sample available yet");
+        }
+        return sample;
+    }
+
+    /**
+     * Get the most recent sample as long as it is not older than the given age.
+     * @param maxAge The oldest sample the caller is willing to accept.
+     * @return The latest cached sample.
+     * @throws IllegalStateException If there is no sample or the latest sample is older than maxAge.
+     */
+    public SensorReadEvent getLatest(Duration maxAge) {
+        SensorReadEvent sample = getLatest();
+        if (sample.ageNanos() > maxAge.toNanos()) {
+            throw new IllegalStateException("Sensor sample is stale: " + Duration.ofNanos(sample.ageNanos()));
+        }
+        return sample;
+    }
+}
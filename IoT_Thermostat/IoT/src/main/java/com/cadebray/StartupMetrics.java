@@ -0,0 +1,74 @@
+package com.cadebray;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import org.springframework.stereotype.Component;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long the device takes to become useful after a cold start: the first frame drawn on the LCD and the
+ * first remote state received from the backend. Both are measured from JVM start, so they include the time Spring
+ * spends building the context, and each is recorded once and then left alone. Until it happens a gauge reads NaN.
+ */
+@Component
+public class StartupMetrics {
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final AtomicLong firstFrameMillis = new AtomicLong(-1);
+    private final AtomicLong firstSyncMillis = new AtomicLong(-1);
+
+    /**
+     * Constructor for StartupMetrics.
+     * @param registry The registry the startup gauges are reported to.
+     */
+    public StartupMetrics(MeterRegistry registry) {
+        TimeGauge.builder("thermostat.startup.first.frame", firstFrameMillis, TimeUnit.MILLISECONDS,
+                        StartupMetrics::valueOrNaN)
+                .description("Time from JVM start to the first frame drawn on the LCD")
+                .register(registry);
+        TimeGauge.builder("thermostat.startup.first.sync", firstSyncMillis, TimeUnit.MILLISECONDS,
+                        StartupMetrics::valueOrNaN)
+                .description("Time from JVM start to the first remote state received from the backend")
+                .register(registry);
+    }
+
+    /**
+     * Record that the first frame has been drawn. Later calls are ignored.
+     */
+    public void firstFrame() {
+        record(firstFrameMillis, "First LCD frame");
+    }
+
+    /**
+     * Record that the remote state has been received for the first time. Later calls are ignored.
+     */
+    public void firstSync() {
+        record(firstSyncMillis, "First remote sync");
+    }
+
+    /**
+     * Store the time since JVM start if nothing has been stored yet.
+     * @param target The milestone to record.
+     * @param name Name used in the log line.
+     */
+    private void record(AtomicLong target, String name) {
+        if (target.get() >= 0) {
+            return;
+        }
+        long elapsed = System.currentTimeMillis() - jvmStartMillis;
+        if (target.compareAndSet(-1, elapsed)) {
+            System.out.println(name + " " + elapsed + " ms after JVM start");
+        }
+    }
+
+    /**
+     * Read a milestone for its gauge.
+     * @param value The recorded milestone.
+     * @return Milliseconds since JVM start, or NaN if it hasn't happened yet.
+     */
+    private static double valueOrNaN(AtomicLong value) {
+        long millis = value.get();
+        return millis < 0 ? Double.NaN : millis;
+    }
+}
@@ -1,44 +1,98 @@
 package com.cadebray;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.statemachine.StateContext;
 import org.springframework.statemachine.StateMachine;
-import org.springframework.statemachine.config.EnableStateMachine;
-import org.springframework.statemachine.config.EnumStateMachineConfigurerAdapter;
+import org.springframework.statemachine.config.StateMachineBuilder;
 import org.springframework.statemachine.config.builders.StateMachineConfigurationConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
 import org.springframework.statemachine.listener.StateMachineListener;
 import org.springframework.statemachine.listener.StateMachineListenerAdapter;
-import org.springframework.statemachine.state.State;
+import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Configuration class for the state machine managing thermostat states.
  * This class defines the states, events, transitions, and listeners for the state machine.
  * Logic for handling state transitions and associated actions is also included here.
+ * <p>
+ * The state machine is built with StateMachineBuilder from a plain @Bean method rather than @EnableStateMachine. The
+ * annotation registers a bean definition holding a live configuration builder, which Spring's AOT processing can't
+ * turn into code, so it would rule out AOT and native image builds.
  */
 @SuppressWarnings("unused") // Suppress unused warnings for Spring configuration classes TODO remove before release
 @Configuration
-@EnableStateMachine
-public class StateMachineConfig extends EnumStateMachineConfigurerAdapter<States, Events> {
+public class StateMachineConfig {
+    /**
+     * Message header holding the States value a SET_MODE event moves to.
+     */
+    public static final String TARGET_STATE_HEADER = "targetState";
+
+    /**
+     * Message header holding the System.nanoTime() at which an event was sent, used to time event handling.
+     */
+    public static final String SENT_AT_HEADER = "sentAtNanos";
+
     private final ThermostatProperties thermostatProperties;
     private final LedService ledService;
     private final ObjectFactory<StateMachine<States, Events>> stateMachineFactory;
-    private final ApiService apiService;
+    private final RemoteStateWriter remoteState;
+    private final DisplayService displayService;
+    // Registered once per event and target, so a transition never looks its meter up in the registry
+    private final EnumMap<Events, Counter> rejected = new EnumMap<>(Events.class);
+    private final Timer[][] transitionTimers = new Timer[Events.values().length][States.values().length];
 
     /**
      * Constructor for StateMachineConfig
      * @param ledService This is the LED service to control LED indicators
      * @param thermostatProperties This is the ThermostatProperties component
      * @param stateMachine This is the StateMachine instance
+     * @param remoteState This is the write-behind buffer used to sync state with the backend
+     * @param displayService This is the display service redrawn on every transition
+     * @param registry This is the registry the state machine metrics are reported to
      */
     public StateMachineConfig(LedService ledService, ThermostatProperties thermostatProperties,
-                              ObjectFactory<StateMachine<States, Events>> stateMachine, ApiService apiService) {
+                              ObjectFactory<StateMachine<States, Events>> stateMachine, RemoteStateWriter remoteState,
+                              DisplayService displayService, MeterRegistry registry) {
         this.ledService = ledService;
         this.thermostatProperties = thermostatProperties;
         this.stateMachineFactory = stateMachine;
-        this.apiService = apiService;
+        this.remoteState = remoteState;
+        this.displayService = displayService;
+        for (Events event : Events.values()) {
+            rejected.put(event, Counter.builder("thermostat.statemachine.rejected")
+                    .description("Events the state machine had no transition for")
+                    .tag("event", event.name())
+                    .register(registry));
+            for (States target : States.values()) {
+                Timer timer = Timer.builder("thermostat.statemachine.transition")
+                        .description("Time from sending an event to the end of its transition")
+                        .tag("event", event.name())
+                        .tag("target", target.name())
+                        .register(registry);
+                transitionTimers[event.ordinal()][target.ordinal()] = timer;
+            }
+        }
+    }
+
+    /**
+     * Create the thermostat state machine. It starts itself once the context has been refreshed.
+     * @return The configured state machine
+     * @throws Exception If the configuration is invalid
+     */
+    @Bean
+    public StateMachine<States, Events> stateMachine() throws Exception {
+        StateMachineBuilder.Builder<States, Events> builder = StateMachineBuilder.builder();
+        configure(builder.configureConfiguration());
+        configure(builder.configureStates());
+        configure(builder.configureTransitions());
+        return builder.build();
     }
 
     /**
@@ -46,8 +100,7 @@ public class StateMachineConfig extends EnumStateMachineConfigurerAdapter<States
      * @param config The StateMachineConfigurationConfigurer to configure settings
      * @throws Exception If an error occurs during configuration
      */
-    @Override
-    public void configure(StateMachineConfigurationConfigurer<States, Events> config) throws Exception {
+    private void configure(StateMachineConfigurationConfigurer<States, Events> config) throws Exception {
         config
             .withConfiguration()
             .autoStartup(true)
@@ -59,8 +112,7 @@ public class StateMachineConfig extends EnumStateMachineConfigurerAdapter<States
      * @param states The StateMachineStateConfigurer to configure states
      * @throws Exception If an error occurs during configuration
      */
-    @Override
-    public void configure(StateMachineStateConfigurer<States, Events> states) throws Exception{
+    private void configure(StateMachineStateConfigurer<States, Events> states) throws Exception{
         states
             .withStates()
             .initial(States.OFF)
@@ -72,8 +124,7 @@ public class StateMachineConfig extends EnumStateMachineConfigurerAdapter<States
      * @param transitions The StateMachineTransitionConfigurer to configure transitions
      * @throws Exception If an error occurs during configuration
      */
-    @Override
-    public void configure(StateMachineTransitionConfigurer<States, Events> transitions) throws Exception {
+    private void configure(StateMachineTransitionConfigurer<States, Events> transitions) throws Exception {
         transitions
             // Handle the Off state to Off to Cool transition
             .withExternal()
@@ -93,6 +144,20 @@ public class StateMachineConfig extends EnumStateMachineConfigurerAdapter<States
             .target(States.OFF)
             .event(Events.BUTTON_CYCLE);
 
+        // Handle SET_MODE as a direct transition between every pair of states, guarded on the target state header.
+        // Applying a remote mode is then a single transition that runs only the target's entry actions.
+        for (States source : States.values()) {
+            for (States target : States.values()) {
+                if (source == target) continue;
+                transitions
+                    .withExternal()
+                    .source(source)
+                    .target(target)
+                    .event(Events.SET_MODE)
+                    .guard(ctx -> target == ctx.getMessageHeaders().get(TARGET_STATE_HEADER));
+            }
+        }
+
         // Handle raise/lower events as internal transitions (no state change) so setpoint updates occur
         // OFF
         transitions
@@ -159,66 +224,97 @@ public class StateMachineConfig extends EnumStateMachineConfigurerAdapter<States
         return new StateMachineListenerAdapter<>() {
 
             /**
-             * Handle state changes in the state machine and perform actions as needed
-             * @param from Provide the state we are transitioning from
-             * @param to Provide the state we are transitioning to
+             * Handle state changes in the state machine and perform actions as needed. The state context is used
+             * rather than stateChanged so the event that caused the change is known.
+             * @param context Provides the stage, the states involved and the triggering event
              */
             @Override
-            public void stateChanged(State<States, Events> from, State<States, Events> to) {
-                handle(from == null ? null : from.getId(), to == null ? States.OFF : to.getId());
+            public void stateContext(StateContext<States, Events> context) {
+                if (context.getStage() == StateContext.Stage.EVENT_NOT_ACCEPTED) {
+                    if (context.getEvent() != null) {
+                        rejected.get(context.getEvent()).increment();
+                    }
+                    return;
+                }
+                if (context.getStage() == StateContext.Stage.TRANSITION_END) {
+                    recordTransitionLatency(context);
+                    return;
+                }
+                if (context.getStage() != StateContext.Stage.STATE_CHANGED) {
+                    return;
+                }
+                States from = context.getSource() == null ? null : context.getSource().getId();
+                States to = context.getTarget() == null ? States.OFF : context.getTarget().getId();
+                handle(from, to, context.getEvent() == Events.SET_MODE);
             }
         };
     }
 
+    /**
+     * Record the time from an event being sent to the end of the transition it triggered, if the sender stamped the
+     * message. Internal transitions such as setpoint changes are included.
+     * @param context The state context of the finished transition
+     */
+    private void recordTransitionLatency(StateContext<States, Events> context) {
+        if (context.getEvent() == null || context.getTransition() == null) {
+            return;
+        }
+        Long sentAt = context.getMessageHeaders().get(SENT_AT_HEADER, Long.class);
+        if (sentAt == null) {
+            return;
+        }
+        States target = context.getTransition().getTarget().getId();
+        transitionTimers[context.getEvent().ordinal()][target.ordinal()]
+                .record(System.nanoTime() - sentAt, TimeUnit.NANOSECONDS);
+    }
+
     /**
      * Handle state transitions and perform actions based on the new state
      * @param from This is the state we are transitioning from
      * @param to This is the state we are transitioning to
+     * @param remote True if the backend requested the change, it already has the new mode and isn't told again
      */
-    private void handle(States from, States to) {
+    private void handle(States from, States to, boolean remote) {
         System.out.println("Transitioning from " + from + " to " + to);
 
         // Per-state actions
         switch (to) {
-            case OFF: onEnterOff(); break;
-            case COOL: onEnterCool(); break;
-            case HEAT: onEnterHeat(); break;
+            case OFF: onEnterOff(!remote); break;
+            case COOL: onEnterCool(!remote); break;
+            case HEAT: onEnterHeat(!remote); break;
+        }
+
+        // Show the new mode right away rather than on the next display tick. The initial state is entered while the
+        // state machine bean is still being created, so that first frame is left to the display tick.
+        if (from != null) {
+            displayService.refresh();
         }
     }
 
     /**
      * Actions to perform when entering the OFF state
+     * @param sync True to send the new mode to the backend
      */
-    private void onEnterOff() {
-        CurrentState state = new CurrentState();
-        state.setState("OFF");
-        state.set_id(apiService.getDeviceId());
-
-        apiService.setState(state);
+    private void onEnterOff(boolean sync) {
+        if (sync) remoteState.setState("OFF");
         ledService.setOff();
     }
 
     /**
      * Actions to perform when entering the COOL state
+     * @param sync True to send the new mode to the backend
      */
-    private void onEnterCool() {
-        CurrentState state = new CurrentState();
-        state.setState("COOL");
-        state.set_id(apiService.getDeviceId());
-
-        apiService.setState(state);
+    private void onEnterCool(boolean sync) {
+        if (sync) remoteState.setState("COOL");
         ledService.onEnterCool();
     }
 
     /**
      * Actions to perform when entering the HEAT state
+     * @param sync True to send the new mode to the backend
      */
-    private void onEnterHeat() {
-        CurrentState state = new CurrentState();
-        state.setState("HEAT");
-        state.set_id(apiService.getDeviceId());
-
-        apiService.setState(state);
+    private void onEnterHeat(boolean sync) {
+        if (sync) remoteState.setState("HEAT");
         ledService.onEnterHeat();
     }
 
@@ -238,11 +334,7 @@ public class StateMachineConfig extends EnumStateMachineConfigurerAdapter<States
      */
     public double decrementSetpoint() {
         double newSetPoint = thermostatProperties.decrementSetpoint();
-        CurrentState state = new CurrentState();
-        state.setSetTemp(newSetPoint);
-        state.set_id(apiService.getDeviceId());
-
-        apiService.setState(state);
+        remoteState.setSetTemp(newSetPoint);
         return newSetPoint;
     }
 
@@ -252,11 +344,7 @@ public class StateMachineConfig extends EnumStateMachineConfigurerAdapter<States
      */
     public double incrementSetpoint() {
         double newSetPoint = thermostatProperties.incrementSetpoint();
-        CurrentState state = new CurrentState();
-        state.setSetTemp(newSetPoint);
-        state.set_id(apiService.getDeviceId());
-
-        apiService.setState(state);
+        remoteState.setSetTemp(newSetPoint);
         return newSetPoint;
     }
 
@@ -0,0 +1,45 @@
+package com.cadebray;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This is a batch of telemetry samples sent to the backend's bulk ingest route. Samples are stored column-wise so the
+ * request body stays small.
+ */
+public class TelemetryBatch {
+    @JsonProperty("t")
+    private long[] t;
+
+    @JsonProperty("temp")
+    private double[] temp;
+
+    @JsonProperty("humidity")
+    private double[] humidity;
+
+    public TelemetryBatch(){}
+
+    public TelemetryBatch(long[] t, double[] temp, double[] humidity) {
+        this.t = t;
+        this.temp = temp;
+        this.humidity = humidity;
+    }
+
+    public long[] getT() {
+        return t;
+    }
+
+    public double[] getTemp() {
+        return temp;
+    }
+
+    public double[] getHumidity() {
+        return humidity;
+    }
+
+    /**
+     * Get the number of samples in this batch.
+     * @return Sample count.
+     */
+    public int size() {
+        return t == null ? 0 : t.length;
+    }
+}
@@ -0,0 +1,94 @@
+package com.cadebray;
+
+/**
+ * Fixed-capacity ring buffer of telemetry samples stored in primitive arrays. When the buffer is full the oldest
+ * sample is overwritten. Samples are read with peek and only removed with discard once they have been delivered, so a
+ * failed upload doesn't lose them.
+ */
+public class TelemetryBuffer {
+    private final long[] timestamps;
+    private final double[] temperatures;
+    private final double[] humidities;
+    private int head = 0; // index of the oldest sample
+    private int size = 0;
+    private long overwritten = 0;
+
+    /**
+     * Constructor for the telemetry buffer.
+     * @param capacity Maximum number of samples held before the oldest is overwritten.
+     */
+    public TelemetryBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Telemetry buffer capacity must be positive: " + capacity);
+        }
+        this.timestamps = new long[capacity];
+        this.temperatures = new double[capacity];
+        this.humidities = new double[capacity];
+    }
+
+    /**
+     * Add a sample, overwriting the oldest one if the buffer is full.
+     * @param epochMillis Wall clock time of the sample in milliseconds since the epoch.
+     * @param temperature Temperature in degrees Fahrenheit.
+     * @param humidity Relative humidity in percent.
+     */
+    public synchronized void add(long epochMillis, double temperature, double humidity) {
+        int capacity = timestamps.length;
+        int tail = (head + size) % capacity;
+        timestamps[tail] = epochMillis;
+        temperatures[tail] = temperature;
+        humidities[tail] = humidity;
+        if (size == capacity) {
+            head = (head + 1) % capacity;
+            overwritten++;
+        } else {
+            size++;
+        }
+    }
+
+    /**
+     * Copy up to max of the oldest samples into a batch without removing them.
+     * @param max The largest batch to build.
+     * @return A batch with the oldest samples, empty if the buffer is empty.
+     */
+    public synchronized TelemetryBatch peek(int max) {
+        int count = Math.min(max, size);
+        long[] t = new long[count];
+        double[] temp = new double[count];
+        double[] humidity = new double[count];
+        int capacity = timestamps.length;
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % capacity;
+            t[i] = timestamps[index];
+            temp[i] = temperatures[index];
+            humidity[i] = humidities[index];
+        }
+        return new TelemetryBatch(t, temp, humidity);
+    }
+
+    /**
+     * Remove the oldest samples after they have been delivered.
+     * @param count Number of samples to remove.
+     */
+    public synchronized void discard(int count) {
+        int removed = Math.min(count, size);
+        head = (head + removed) % timestamps.length;
+        size -= removed;
+    }
+
+    /**
+     * Get the number of samples waiting to be delivered.
+     * @return Samples currently held.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of samples lost because the buffer was full.
+     * @return Samples overwritten since startup.
+     */
+    public synchronized long getOverwritten() {
+        return overwritten;
+    }
+}
@@ -4,12 +4,14 @@ import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -22,11 +24,17 @@ import java.util.concurrent.atomic.AtomicReference;
 @ConfigurationProperties(prefix = "thermostat")
 public class ThermostatProperties {
     private final AtomicReference<Double> setpoint = new AtomicReference<>(72.0);
+    // The latest remote state that arrived while local changes were pending, applied once they have been sent
+    private final AtomicReference<CurrentState> deferred = new AtomicReference<>();
 
     @Autowired
     private ApplicationEventPublisher publisher;
     @Autowired
     private ApiService apiService;
+    @Autowired
+    private RemoteStateWriter remoteState;
+    @Autowired
+    private StartupMetrics startupMetrics;
     private final ObjectFactory<StateMachine<States, Events>> stateMachineFactory;
 
     @Autowired
@@ -46,8 +54,9 @@ public class ThermostatProperties {
         if (setpoint == null) {
             return;
         }
-        this.setpoint.set(setpoint);
-        if (publisher != null) {
+        Double previous = this.setpoint.getAndSet(setpoint);
+        // Only tell listeners when the value actually moved
+        if (publisher != null && !setpoint.equals(previous)) {
             publisher.publishEvent(setpoint);
         }
     }
@@ -80,11 +89,77 @@ public class ThermostatProperties {
         return newVal;
     }
 
-    @Scheduled(fixedDelay = 15000)
+    /**
+     * Safety net poll of the remote state. Changes normally arrive straight away through the RemoteStateSubscriber,
+     * this only catches anything missed while the stream was down. Nothing is applied if the state is unchanged.
+     */
+    @Scheduled(fixedDelayString = "${thermostat.pollInterval:300000}", scheduler = SchedulingConfig.NETWORK)
     public void refreshState(){
-        CurrentState current_state = apiService.getState();
+        CurrentState changed = apiService.getStateIfChanged();
+        if (changed != null) {
+            applyRemoteState(changed);
+        }
+    }
+
+    /**
+     * Catch up on a remote state that arrived while local changes were pending, once they have left the outbox. The
+     * backend's state now holds both that remote change and the local ones, so it is fetched again rather than
+     * applying the older copy, which would undo the local changes. The remembered copy is only used if the backend
+     * reports no change since the last fetch.
+     */
+    @Scheduled(fixedDelay = 1000, scheduler = SchedulingConfig.NETWORK)
+    public void applyDeferredState() {
+        if (deferred.get() == null || remoteState.hasPendingChanges()) {
+            return;
+        }
+        CurrentState remembered = deferred.getAndSet(null);
+        if (remembered == null) {
+            return;
+        }
+        CurrentState changed;
+        try {
+            changed = apiService.getStateIfChanged();
+        } catch (Exception e) {
+            // Try again on the next run unless a newer state has arrived meanwhile
+            deferred.compareAndSet(null, remembered);
+            System.err.println("Failed to fetch the remote state after sending local changes: " + e.getMessage());
+            return;
+        }
+        applyRemoteState(changed != null ? changed : remembered);
+    }
+
+    /**
+     * Apply a state pushed by the backend.
+     * @param current_state The state from the push stream.
+     */
+    @EventListener
+    public void onRemoteState(CurrentState current_state) {
+        applyRemoteState(current_state);
+    }
+
+    /**
+     * Bring the setpoint and state machine in line with the remote state. Deferred while local changes are still
+     * waiting to be sent, otherwise the older remote state would briefly undo them, and caught up on by
+     * applyDeferredState once they have been sent.
+     * @param current_state The remote state.
+     */
+    private void applyRemoteState(CurrentState current_state) {
+        if (current_state == null) {
+            return;
+        }
+        startupMetrics.firstSync();
+        if (remoteState.hasPendingChanges()) {
+            deferred.set(current_state);
+            return;
+        }
+        // Anything deferred is older than this state
+        deferred.set(null);
         setSetpoint(current_state.getSetTemp());
 
+        if (current_state.getState() == null) {
+            return;
+        }
+
         States remote_state;
         switch (current_state.getState()) {
             case "HEAT": remote_state = States.HEAT; break;
@@ -93,19 +168,35 @@ public class ThermostatProperties {
             default: return;
         }
 
-        int counter = 0;
-        while (counter <= States.values().length) {
-            if (getStateMachine().getState().getId() == remote_state){
-                break;
+        setMode(remote_state).whenComplete((accepted, error) -> {
+            if (error != null) {
+                System.err.println("Error sending event to state machine: " + error);
+            } else if (!accepted) {
+                System.err.println("State machine refused remote mode " + remote_state);
             }
+        });
+    }
 
-            Message<Events> msg = MessageBuilder.withPayload(Events.BUTTON_CYCLE).build();
-
-            getStateMachine().sendEvent(Mono.just(msg)).subscribe(
-                    null,
-                    error -> System.err.println("Error sending event to state machine: " + error)
-            );
-            counter++;
+    /**
+     * Move the state machine straight to a mode with a single SET_MODE transition. Only the target state's entry
+     * actions run, and the new mode isn't sent back to the backend.
+     * @param target The mode to move to.
+     * @return Future completed with true once the state machine is in the target mode, false if it refused.
+     */
+    public CompletableFuture<Boolean> setMode(States target) {
+        StateMachine<States, Events> stateMachine = getStateMachine();
+        if (stateMachine.getState() != null && stateMachine.getState().getId() == target) {
+            return CompletableFuture.completedFuture(true);
         }
+
+        Message<Events> msg = MessageBuilder.withPayload(Events.SET_MODE)
+                .setHeader(StateMachineConfig.TARGET_STATE_HEADER, target)
+                .setHeader(StateMachineConfig.SENT_AT_HEADER, System.nanoTime())
+                .build();
+
+        // An accepted event doesn't guarantee a transition, so check where the machine ended up
+        return stateMachine.sendEvent(Mono.just(msg))
+                .then(Mono.fromCallable(() -> stateMachine.getState().getId() == target))
+                .toFuture();
     }
 }
@@ -0,0 +1,41 @@
+package com.cadebray;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import java.io.FileDescriptor;
+
+/**
+ * Reachability hints for ahead-of-time builds. Spring's AOT processing already covers the beans and configuration
+ * properties, this registers what it can't see from the bean definitions: the types Jackson binds to and from the
+ * backend, and the Pi4J plugins with their native libraries. The state machine needs nothing here because
+ * StateMachineConfig builds it from a plain @Bean method. Used by the native image build, see the native profile in
+ * the pom.
+ */
+public class ThermostatRuntimeHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        // Request and response bodies, read and written through HttpTransport's ObjectMapper
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(),
+                CurrentState.class, loginResponse.class, TelemetryBatch.class);
+
+        // Pi4J finds its platforms and providers through the service loader
+        hints.resources().registerPattern("META-INF/services/com.pi4j.extension.Plugin");
+        for (String plugin : new String[] {
+                "com.pi4j.plugin.raspberrypi.RaspberryPiPlugin",
+                "com.pi4j.plugin.gpiod.GpioDPlugin",
+                "com.pi4j.plugin.linuxfs.LinuxFsPlugin"}) {
+            hints.reflection().registerType(TypeReference.of(plugin), MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        }
+
+        // The gpiod and linuxfs libraries are extracted from the jar and loaded at runtime. Their native code creates
+        // Longs for chip and line handles and reads the descriptor out of FileDescriptor.
+        hints.resources().registerPattern("lib/*/pi4j-gpiod/*.so");
+        hints.resources().registerPattern("lib/*/pi4j-linuxfs/*.so");
+        hints.jni().registerType(Long.class, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        hints.jni().registerType(FileDescriptor.class, MemberCategory.DECLARED_FIELDS);
+    }
+}
@@ -0,0 +1,323 @@
+package com.cadebray;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * One fixed-size block of the on-disk sensor log, compressed the way Facebook's Gorilla compresses time series.
+ * Timestamps are stored as the difference between consecutive deltas, which is zero or a few bits for a steady one
+ * second sample rate. Temperature and humidity are XORed with the previous value and only the bits that changed are
+ * stored, reusing the previous run of meaningful bits when the change fits inside it.
+ * <p>
+ * Block layout, big-endian: a 32 byte header (magic, sample count, min timestamp, max timestamp, payload length in
+ * bits, CRC32) followed by the bit stream. The first sample is stored raw. The CRC covers the first 28 header bytes
+ * and the used part of the payload, so a block torn by a power cut is recognised and skipped.
+ */
+public final class TimeSeriesBlock {
+    public static final int SIZE = 4096;
+
+    private static final int MAGIC = 0x54534231; // "TSB1"
+    private static final int HEADER_SIZE = 32;
+    private static final int OFFSET_COUNT = 4;
+    private static final int OFFSET_MIN_TIME = 8;
+    private static final int OFFSET_MAX_TIME = 16;
+    private static final int OFFSET_BITS = 24;
+    private static final int OFFSET_CRC = 28;
+    private static final long PAYLOAD_BITS = (SIZE - HEADER_SIZE) * 8L;
+    // Worst case for one sample: a 4 bit prefix and 64 bit timestamp, then 2 + 5 + 6 + 64 bits for each value
+    private static final int MAX_SAMPLE_BITS = 68 + 2 * 77;
+
+    /**
+     * Receives decoded samples.
+     */
+    @FunctionalInterface
+    public interface SampleVisitor {
+        /**
+         * Accept one sample.
+         * @param epochMillis Wall clock time of the sample in milliseconds since the epoch.
+         * @param temperature Temperature in degrees Fahrenheit.
+         * @param humidity Relative humidity in percent.
+         */
+        void accept(long epochMillis, double temperature, double humidity);
+    }
+
+    private final byte[] data = new byte[SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(data);
+    private final CRC32 crc = new CRC32();
+
+    // Encoder state, reset for every block
+    private long bitPosition;
+    private int count;
+    private long minTime;
+    private long maxTime;
+    private long lastTime;
+    private long lastDelta;
+    private final long[] lastValue = new long[2];
+    private final int[] leading = new int[2];
+    private final int[] trailing = new int[2];
+
+    /**
+     * Constructor for an empty block.
+     */
+    public TimeSeriesBlock() {
+        reset();
+    }
+
+    /**
+     * Empty the block so it can be filled again.
+     */
+    public void reset() {
+        Arrays.fill(data, (byte) 0);
+        bitPosition = 0;
+        count = 0;
+        minTime = Long.MAX_VALUE;
+        maxTime = Long.MIN_VALUE;
+        lastDelta = 0;
+    }
+
+    /**
+     * Append a sample if it is guaranteed to fit.
+     * @param epochMillis Wall clock time of the sample in milliseconds since the epoch.
+     * @param temperature Temperature in degrees Fahrenheit.
+     * @param humidity Relative humidity in percent.
+     * @return False if the block is full and the sample was not added.
+     */
+    public boolean append(long epochMillis, double temperature, double humidity) {
+        if (bitPosition + MAX_SAMPLE_BITS > PAYLOAD_BITS) {
+            return false;
+        }
+        if (count == 0) {
+            writeBits(epochMillis, 64);
+            lastValue[0] = Double.doubleToRawLongBits(temperature);
+            lastValue[1] = Double.doubleToRawLongBits(humidity);
+            writeBits(lastValue[0], 64);
+            writeBits(lastValue[1], 64);
+            leading[0] = leading[1] = -1;
+        } else {
+            writeTimestamp(epochMillis);
+            writeValue(0, temperature);
+            writeValue(1, humidity);
+        }
+        lastTime = epochMillis;
+        minTime = Math.min(minTime, epochMillis);
+        maxTime = Math.max(maxTime, epochMillis);
+        count++;
+        return true;
+    }
+
+    /**
+     * Encode a timestamp as the change in delta from the previous sample.
+     * @param epochMillis The timestamp.
+     */
+    private void writeTimestamp(long epochMillis) {
+        long delta = epochMillis - lastTime;
+        long deltaOfDelta = delta - lastDelta;
+        lastDelta = delta;
+        if (deltaOfDelta == 0) {
+            writeBits(0, 1);
+        } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            writeBits(0b10, 2);
+            writeBits(deltaOfDelta + 63, 7);
+        } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            writeBits(0b110, 3);
+            writeBits(deltaOfDelta + 255, 9);
+        } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            writeBits(0b1110, 4);
+            writeBits(deltaOfDelta + 2047, 12);
+        } else {
+            writeBits(0b1111, 4);
+            writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    /**
+     * Encode a value as its XOR with the previous value of the same series.
+     * @param series 0 for temperature, 1 for humidity.
+     * @param value The value.
+     */
+    private void writeValue(int series, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        long xor = bits ^ lastValue[series];
+        lastValue[series] = bits;
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+        int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trail = Long.numberOfTrailingZeros(xor);
+        if (leading[series] >= 0 && lead >= leading[series] && trail >= trailing[series]) {
+            // The changed bits fit in the previous window, only the window is written
+            writeBits(0b10, 2);
+            writeBits(xor >>> trailing[series], 64 - leading[series] - trailing[series]);
+        } else {
+            int length = 64 - lead - trail;
+            writeBits(0b11, 2);
+            writeBits(lead, 5);
+            writeBits(length - 1, 6);
+            writeBits(xor >>> trail, length);
+            leading[series] = lead;
+            trailing[series] = trail;
+        }
+    }
+
+    /**
+     * Write the low bits of a value to the bit stream, most significant first.
+     * @param value The bits to write.
+     * @param bits How many of the low bits to write, up to 64.
+     */
+    private void writeBits(long value, int bits) {
+        while (bits > 0) {
+            int index = HEADER_SIZE + (int) (bitPosition >>> 3);
+            int free = 8 - (int) (bitPosition & 7);
+            int take = Math.min(free, bits);
+            int chunk = (int) ((value >>> (bits - take)) & ((1 << take) - 1));
+            data[index] |= (byte) (chunk << (free - take));
+            bitPosition += take;
+            bits -= take;
+        }
+    }
+
+    /**
+     * Fill in the header so the block can be written out or decoded. Can be called again after more samples.
+     * @return The whole block, positioned at the start.
+     */
+    public ByteBuffer finish() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(OFFSET_COUNT, count);
+        buffer.putLong(OFFSET_MIN_TIME, minTime);
+        buffer.putLong(OFFSET_MAX_TIME, maxTime);
+        buffer.putInt(OFFSET_BITS, (int) bitPosition);
+        crc.reset();
+        crc.update(data, 0, OFFSET_CRC);
+        crc.update(data, HEADER_SIZE, (int) ((bitPosition + 7) >>> 3));
+        buffer.putInt(OFFSET_CRC, (int) crc.getValue());
+        return buffer.clear();
+    }
+
+    /**
+     * Get the number of samples in the block.
+     * @return Sample count.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the number of payload bits used, to see how well the samples compress.
+     * @return Bits used after the header.
+     */
+    public long getBitLength() {
+        return bitPosition;
+    }
+
+    /**
+     * Check whether a stored block is complete and undamaged.
+     * @param source Buffer holding the block, e.g. a mapped segment.
+     * @param base Offset of the block in the buffer.
+     * @return True if the magic, lengths and CRC are all valid.
+     */
+    public static boolean isValid(ByteBuffer source, int base) {
+        if (base + SIZE > source.limit() || source.getInt(base) != MAGIC) {
+            return false;
+        }
+        int count = source.getInt(base + OFFSET_COUNT);
+        int bits = source.getInt(base + OFFSET_BITS);
+        if (count <= 0 || bits <= 0 || bits > PAYLOAD_BITS) {
+            return false;
+        }
+        CRC32 check = new CRC32();
+        check.update(source.slice(base, OFFSET_CRC));
+        check.update(source.slice(base + HEADER_SIZE, (bits + 7) >>> 3));
+        return (int) check.getValue() == source.getInt(base + OFFSET_CRC);
+    }
+
+    /**
+     * Decode the samples of a valid block that fall in a time range. Blocks entirely outside the range are skipped
+     * from the header alone.
+     * @param source Buffer holding the block.
+     * @param base Offset of the block in the buffer.
+     * @param fromMillis Start of the range, inclusive.
+     * @param toMillis End of the range, inclusive.
+     * @param visitor Receives each sample in the range, in the order they were written.
+     * @return The number of samples passed to the visitor.
+     */
+    public static int decode(ByteBuffer source, int base, long fromMillis, long toMillis, SampleVisitor visitor) {
+        int count = source.getInt(base + OFFSET_COUNT);
+        if (count <= 0 || source.getLong(base + OFFSET_MAX_TIME) < fromMillis
+                || source.getLong(base + OFFSET_MIN_TIME) > toMillis) {
+            return 0;
+        }
+        Reader reader = new Reader(source, base + HEADER_SIZE);
+        long time = reader.read(64);
+        long[] value = {reader.read(64), reader.read(64)};
+        int[] lead = new int[2];
+        int[] length = new int[2];
+        long delta = 0;
+        int visited = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                delta += reader.readDeltaOfDelta();
+                time += delta;
+                for (int series = 0; series < 2; series++) {
+                    if (reader.read(1) == 0) continue;
+                    if (reader.read(1) == 1) {
+                        lead[series] = (int) reader.read(5);
+                        length[series] = (int) reader.read(6) + 1;
+                    }
+                    int trail = 64 - lead[series] - length[series];
+                    value[series] ^= reader.read(length[series]) << trail;
+                }
+            }
+            if (time >= fromMillis && time <= toMillis) {
+                visitor.accept(time, Double.longBitsToDouble(value[0]), Double.longBitsToDouble(value[1]));
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Reads the bit stream of a stored block.
+     */
+    private static final class Reader {
+        private final ByteBuffer source;
+        private final int base;
+        private long position = 0;
+
+        private Reader(ByteBuffer source, int base) {
+            this.source = source;
+            this.base = base;
+        }
+
+        /**
+         * Read bits from the stream, most significant first.
+         * @param bits How many bits to read, up to 64.
+         * @return The bits in the low end of the result.
+         */
+        long read(int bits) {
+            long value = 0;
+            while (bits > 0) {
+                int current = source.get(base + (int) (position >>> 3)) & 0xFF;
+                int available = 8 - (int) (position & 7);
+                int take = Math.min(available, bits);
+                value = (value << take) | ((current >>> (available - take)) & ((1 << take) - 1));
+                position += take;
+                bits -= take;
+            }
+            return value;
+        }
+
+        /**
+         * Read a timestamp's change in delta.
+         * @return The delta of delta in milliseconds.
+         */
+        long readDeltaOfDelta() {
+            if (read(1) == 0) return 0;
+            if (read(1) == 0) return read(7) - 63;
+            if (read(1) == 0) return read(9) - 255;
+            if (read(1) == 0) return read(12) - 2047;
+            return read(64);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.cadebray;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the device's JWT valid. The token's exp claim is decoded so a new one is only requested shortly before the
+ * old one expires, concurrent callers share a single login request, and the token is cached on disk so the first
+ * requests after a restart don't have to wait for a login. A token without an exp claim is assumed to last the
+ * configured default lifetime, the backend rejecting it earlier only costs a retry with a fresh one.
+ */
+@Component
+@ConfigurationProperties(prefix = "api.token")
+public class TokenManager {
+    private final HttpTransport transport;
+    private final Counter refreshed;
+    private final Counter refreshFailed;
+    private Path cachePath = Path.of(System.getProperty("user.home"), ".thermostat", "token");
+    private Duration refreshMargin = Duration.ofSeconds(10);
+    private Duration defaultLifetime = Duration.ofMinutes(15);
+    private Supplier<CompletableFuture<String>> login;
+
+    private volatile String token;
+    private volatile long expiresAt; // Wall clock milliseconds
+
+    // The login request in progress. Guarded by this so every caller shares the same request.
+    private CompletableFuture<String> refreshing;
+
+    /**
+     * Constructor for the token manager.
+     * @param transport The shared HTTP transport, used here for its JSON parser.
+     * @param registry The registry the refresh counters are reported to.
+     */
+    public TokenManager(HttpTransport transport, MeterRegistry registry) {
+        this.transport = transport;
+        this.refreshed = Counter.builder("thermostat.token.refreshes")
+                .description("Logins performed to get a new token")
+                .tag("result", "success")
+                .register(registry);
+        this.refreshFailed = Counter.builder("thermostat.token.refreshes")
+                .description("Logins performed to get a new token")
+                .tag("result", "failure")
+                .register(registry);
+    }
+
+    /**
+     * Load the cached token from disk if it hasn't expired. Uses @PostConstruct so the cache path is bound first.
+     */
+    @PostConstruct
+    public void load() {
+        if (!Files.isReadable(cachePath)) {
+            return;
+        }
+        try {
+            String cached = Files.readString(cachePath, StandardCharsets.UTF_8).trim();
+            long expiry = decodeExpiry(cached, Files.getLastModifiedTime(cachePath).toMillis());
+            if (expiry - refreshMargin.toMillis() > System.currentTimeMillis()) {
+                token = cached;
+                expiresAt = expiry;
+            }
+        } catch (Exception e) {
+            System.err.println("Ignoring unreadable token cache " + cachePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Set the function that performs a login and returns the new token. Called once by ApiService.
+     * @param login Performs the login request.
+     */
+    public void setLogin(Supplier<CompletableFuture<String>> login) {
+        this.login = login;
+    }
+
+    /**
+     * Get a token that is valid for at least the refresh margin, logging in first if needed.
+     * @return Future completed with the token.
+     */
+    public CompletableFuture<String> token() {
+        String current = token;
+        if (current != null && System.currentTimeMillis() < expiresAt - refreshMargin.toMillis()) {
+            return CompletableFuture.completedFuture(current);
+        }
+        return refresh();
+    }
+
+    /**
+     * Log in again. If a login is already running the caller gets the same future instead of starting a second one.
+     * @return Future completed with the new token.
+     */
+    public synchronized CompletableFuture<String> refresh() {
+        if (refreshing != null) {
+            return refreshing;
+        }
+        long requestedAt = System.currentTimeMillis();
+        CompletableFuture<String> request = login.get().thenApply(fresh -> {
+            accept(fresh, requestedAt);
+            return fresh;
+        });
+        refreshing = request;
+        request.whenComplete((fresh, error) -> {
+            (error == null ? refreshed : refreshFailed).increment();
+            synchronized (this) {
+                if (refreshing == request) {
+                    refreshing = null;
+                }
+            }
+        });
+        return request;
+    }
+
+    /**
+     * Drop a token the backend rejected so the next call logs in again. Ignored if the token has already been
+     * replaced.
+     * @param rejected The token that was rejected.
+     */
+    public void invalidate(String rejected) {
+        if (rejected != null && rejected.equals(token)) {
+            expiresAt = 0;
+        }
+    }
+
+    /**
+     * Start using a freshly issued token and write it to the cache.
+     * @param fresh The new token.
+     * @param requestedAt Wall clock time the login was requested.
+     */
+    private void accept(String fresh, long requestedAt) {
+        long expiry;
+        try {
+            JsonNode claims = claims(fresh);
+            // Measure the lifetime from the token itself so a skewed device clock doesn't matter
+            if (!claims.has("exp")) {
+                expiry = requestedAt + defaultLifetime.toMillis();
+            } else if (claims.has("iat")) {
+                expiry = requestedAt + (claims.get("exp").asLong() - claims.get("iat").asLong()) * 1000;
+            } else {
+                expiry = claims.get("exp").asLong() * 1000;
+            }
+        } catch (Exception e) {
+            System.err.println("Login returned a token without a readable expiry, assuming it lasts " + defaultLifetime
+                    + ": " + e.getMessage());
+            expiry = requestedAt + defaultLifetime.toMillis();
+        }
+        token = fresh;
+        expiresAt = expiry;
+        store(fresh);
+    }
+
+    /**
+     * Write the token to the cache file, readable only by the owner where the filesystem supports it.
+     * @param fresh The token to cache.
+     */
+    private void store(String fresh) {
+        try {
+            Files.createDirectories(cachePath.toAbsolutePath().getParent());
+            Path temporary = cachePath.resolveSibling(cachePath.getFileName() + ".tmp");
+            Files.writeString(temporary, fresh, StandardCharsets.UTF_8);
+            try {
+                Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException ignored) {
+                // Not a POSIX filesystem
+            }
+            Files.move(temporary, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to cache token to " + cachePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decode the expiry of a cached token. The signature is not checked, that is the backend's job. A token without an
+     * exp claim expires the default lifetime after it was cached.
+     * @param jwt The encoded token.
+     * @param cachedAt Wall clock milliseconds the token was written to the cache.
+     * @return Expiry as wall clock milliseconds.
+     */
+    private long decodeExpiry(String jwt, long cachedAt) {
+        try {
+            JsonNode claims = claims(jwt);
+            if (claims.has("exp")) {
+                return claims.get("exp").asLong() * 1000;
+            }
+        } catch (IllegalArgumentException ignored) {
+            // Not a JWT, fall through to the default lifetime
+        }
+        return cachedAt + defaultLifetime.toMillis();
+    }
+
+    /**
+     * Decode the claims of a JWT without checking its signature.
+     * @param jwt The encoded token.
+     * @return The payload claims.
+     */
+    private JsonNode claims(String jwt) {
+        String[] parts = jwt.split("\\.");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Not a JWT");
+        }
+        return transport.fromJson(Base64.getUrlDecoder().decode(parts[1]), JsonNode.class);
+    }
+
+    /**
+     * Set where the token is cached between restarts. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param cachePath Path to the cache file, created if it doesn't exist.
+     */
+    public void setCachePath(String cachePath) {
+        this.cachePath = Path.of(cachePath);
+    }
+
+    /**
+     * Set how long before expiry the token is refreshed. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param refreshMargin Time before expiry at which a new token is requested.
+     */
+    public void setRefreshMargin(Duration refreshMargin) {
+        this.refreshMargin = refreshMargin;
+    }
+
+    /**
+     * Set how long a token without an exp claim is used before logging in again. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param defaultLifetime Assumed lifetime of a token that doesn't state its own.
+     */
+    public void setDefaultLifetime(Duration defaultLifetime) {
+        this.defaultLifetime = defaultLifetime;
+    }
+}
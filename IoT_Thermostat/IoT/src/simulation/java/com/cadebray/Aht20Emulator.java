@@ -0,0 +1,111 @@
+package com.cadebray;
+
+import com.pi4j.io.i2c.I2CConfig;
+import com.pi4j.io.i2c.I2CProvider;
+import com.pi4j.plugin.mock.provider.i2c.MockI2C;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emulates an AHT20 on a mock I2C bus. It answers the init and trigger commands, reports busy for the datasheet's 80 ms
+ * after a trigger, and returns frames encoded and CRC protected exactly as the real sensor does, with the values taken
+ * from the room model. A fraction of frames can be corrupted on purpose to exercise the driver's retry path.
+ */
+public class Aht20Emulator extends MockI2C {
+    private static final int STATUS_BUSY = 0x80;
+    private static final int STATUS_CALIBRATED = 0x08;
+    private static final int STATUS_CYCLE_MODE = 0x10;
+    private static final long MEASUREMENT_NANOS = TimeUnit.MILLISECONDS.toNanos(80);
+
+    private final RoomModel room;
+    private final double crcErrorRate;
+    private final Random random;
+
+    // The driver only talks to the sensor from its bus thread
+    private final byte[] frame = new byte[7];
+    private boolean calibrated = false;
+    private long busyUntil = 0;
+
+    /**
+     * Constructor for the AHT20 emulator.
+     * @param provider The mock I2C provider.
+     * @param config The I2C configuration the driver would have opened.
+     * @param room The room model that supplies readings.
+     * @param crcErrorRate Fraction of frames, from 0 to 1, sent with a corrupted byte.
+     * @param seed Seed for choosing which frames are corrupted.
+     */
+    public Aht20Emulator(I2CProvider provider, I2CConfig config, RoomModel room, double crcErrorRate, long seed) {
+        super(provider, config);
+        this.room = room;
+        this.crcErrorRate = crcErrorRate;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public int read() {
+        return status();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        frame[0] = (byte) status();
+        int count = Math.min(length, frame.length);
+        System.arraycopy(frame, 0, buffer, offset, count);
+        return count;
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        switch (data[offset] & 0xFF) {
+            case 0xBE -> calibrated = true; // Initialize
+            case 0xBA -> calibrated = false; // Soft reset
+            case 0xAC -> measure(); // Trigger measurement
+            default -> { } // Not a command the driver sends
+        }
+        return length;
+    }
+
+    /**
+     * Take a reading from the room and encode it into the frame, ready to be read once the busy time has passed.
+     */
+    private void measure() {
+        RoomModel.Reading reading = room.sample();
+        int humid = encode(reading.humidity() / 100.0);
+        int temp = encode((reading.celsius() + 50.0) / 200.0);
+
+        frame[1] = (byte) (humid >> 12);
+        frame[2] = (byte) (humid >> 4);
+        frame[3] = (byte) (((humid & 0x0F) << 4) | ((temp >> 16) & 0x0F));
+        frame[4] = (byte) (temp >> 8);
+        frame[5] = (byte) temp;
+        frame[6] = (byte) AHT20.crc8(frame, 6);
+
+        if (random.nextDouble() < crcErrorRate) {
+            frame[1 + random.nextInt(5)] ^= (byte) (1 << random.nextInt(8));
+        }
+        busyUntil = System.nanoTime() + MEASUREMENT_NANOS;
+    }
+
+    /**
+     * Get the status byte.
+     * @return The status, busy while a measurement is running.
+     */
+    private int status() {
+        int status = STATUS_CYCLE_MODE;
+        if (calibrated) status |= STATUS_CALIBRATED;
+        if (System.nanoTime() - busyUntil < 0) status |= STATUS_BUSY;
+        return status;
+    }
+
+    /**
+     * Scale a fraction of the sensor's range to its 20-bit raw value.
+     * @param fraction Position in the range, clamped to 0..1.
+     * @return The raw value.
+     */
+    private static int encode(double fraction) {
+        return (int) Math.round(Math.clamp(fraction, 0.0, 1.0) * (AHT20.SCALE - 1));
+    }
+}
@@ -0,0 +1,151 @@
+package com.cadebray;
+
+import com.pi4j.context.Context;
+import com.pi4j.io.gpio.digital.DigitalInput;
+import com.pi4j.io.gpio.digital.DigitalState;
+import com.pi4j.plugin.mock.provider.gpio.digital.MockDigitalInput;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Presses the simulated buttons from a script. Each step waits for its delay and then presses one button, holding it
+ * for the press length before releasing it, so the button service sees the same active-low edges as on the device.
+ * Steps are written as delay:button, e.g. {@code 10s:cycle,2s:raise,2s:lower}, and the script can repeat forever for
+ * soak runs.
+ */
+@Component
+@Profile("simulation")
+@ConfigurationProperties(prefix = "simulation.buttons")
+public class ButtonScript {
+    private final Context pi4j;
+    private final GpioButtonService buttons;
+    private final ScheduledExecutorService scheduler;
+    private List<Step> steps = List.of();
+    private boolean repeat = false;
+    private Duration pressLength = Duration.ofMillis(100);
+
+    /**
+     * A single scripted press.
+     * @param delay Time to wait after the previous step.
+     * @param button Id of the button input to press.
+     */
+    private record Step(Duration delay, String button) {}
+
+    /**
+     * Constructor for the button script.
+     * @param pi4j The simulated Pi4J context holding the button inputs.
+     * @param buttons The button service, waited on until its inputs are provisioned.
+     */
+    public ButtonScript(Context pi4j, GpioButtonService buttons) {
+        this.pi4j = pi4j;
+        this.buttons = buttons;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sim-buttons");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Release every button and start the script. Uses ApplicationReadyEvent, and waits for the button service to
+     * finish provisioning so the buttons and their listeners exist.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        buttons.ready().join();
+        for (String id : List.of("button-cycle", "button-raise", "button-lower")) {
+            button(id).mockState(DigitalState.HIGH);
+        }
+        if (!steps.isEmpty()) {
+            System.out.println("Running button script with " + steps.size() + " steps" + (repeat ? ", repeating" : ""));
+            schedule(0);
+        }
+    }
+
+    /**
+     * Stop the script. Uses @PreDestroy so the thread is released on shutdown.
+     */
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Schedule a step, wrapping around to the first step if the script repeats.
+     * @param index Index of the step to schedule.
+     */
+    private void schedule(int index) {
+        if (index >= steps.size()) {
+            if (!repeat) {
+                System.out.println("Button script finished");
+                return;
+            }
+            index = 0;
+        }
+        Step step = steps.get(index);
+        int next = index + 1;
+        scheduler.schedule(() -> {
+            MockDigitalInput button = button(step.button());
+            button.mockState(DigitalState.LOW);
+            scheduler.schedule(() -> {
+                button.mockState(DigitalState.HIGH);
+                schedule(next);
+            }, pressLength.toMillis(), TimeUnit.MILLISECONDS);
+        }, step.delay().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Look up a simulated button.
+     * @param id The button's input id.
+     * @return The mock input.
+     */
+    private MockDigitalInput button(String id) {
+        return (MockDigitalInput) pi4j.registry().get(id, DigitalInput.class);
+    }
+
+    /**
+     * Set the script to run. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param script Steps of the form delay:button, where button is cycle, raise or lower.
+     */
+    public void setScript(List<String> script) {
+        List<Step> parsed = new ArrayList<>();
+        for (String entry : script) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2 || !List.of("cycle", "raise", "lower").contains(parts[1].trim())) {
+                throw new IllegalArgumentException("Invalid button script step: " + entry);
+            }
+            parsed.add(new Step(DurationStyle.detectAndParse(parts[0].trim()), "button-" + parts[1].trim()));
+        }
+        this.steps = List.copyOf(parsed);
+    }
+
+    /**
+     * Run the script again from the start once it finishes. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param repeat True to repeat forever.
+     */
+    public void setRepeat(boolean repeat) {
+        this.repeat = repeat;
+    }
+
+    /**
+     * Set how long each button is held down. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param pressLength The hold time.
+     */
+    public void setPressLength(Duration pressLength) {
+        this.pressLength = pressLength;
+    }
+}
@@ -0,0 +1,186 @@
+package com.cadebray;
+
+import com.pi4j.context.Context;
+import com.pi4j.io.gpio.digital.DigitalOutput;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Emulates the HD44780 controller behind the LCD by watching the mock GPIO pins. Every falling edge of E latches a
+ * nibble from D4-D7, pairs of nibbles are decoded into commands and characters, and the characters land in a model of
+ * the controller's DDRAM. The controller powers up in 8-bit mode, where each latch is a whole instruction with the
+ * low bits unconnected, until a function set switches it to 4-bit mode. What ends up on the emulated screen is
+ * therefore what the driver actually sent, not what it was asked to show. A frame is captured after every commit and
+ * the most recent ones are kept for inspection.
+ */
+@Component
+@Profile("simulation")
+@ConfigurationProperties(prefix = "simulation.lcd")
+public class LcdEmulator {
+    private static final int COLUMNS = 16;
+    private static final int LINE_LENGTH = 0x28; // DDRAM bytes per line in 2-line mode
+
+    // Model of the controller, only touched by the thread writing to the display
+    private final byte[] ddram = new byte[0x40 + LINE_LENGTH];
+    private int address = 0;
+    private int highNibble = -1;
+    private boolean fourBit = false;
+    private DigitalOutput rs;
+    private DigitalOutput d4;
+    private DigitalOutput d5;
+    private DigitalOutput d6;
+    private DigitalOutput d7;
+
+    // Captured frames, guarded by this
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private long captured = 0;
+    private int history = 120;
+    private boolean echo = false;
+
+    /**
+     * A captured frame.
+     * @param timestampMillis Wall clock time of the capture.
+     * @param line1 The top row.
+     * @param line2 The bottom row.
+     */
+    public record Frame(long timestampMillis, String line1, String line2) {}
+
+    /**
+     * Start watching the LCD pins. Must be called after the LCDisplay has been created and before it is initialized,
+     * so the emulator sees the same power-on state as the controller.
+     * @param pi4j The context the LCD pins were created in.
+     */
+    public void attach(Context pi4j) {
+        Arrays.fill(ddram, (byte) ' ');
+        fourBit = false;
+        highNibble = -1;
+        rs = pi4j.registry().get("lcd-rs", DigitalOutput.class);
+        d4 = pi4j.registry().get("lcd-d4", DigitalOutput.class);
+        d5 = pi4j.registry().get("lcd-d5", DigitalOutput.class);
+        d6 = pi4j.registry().get("lcd-d6", DigitalOutput.class);
+        d7 = pi4j.registry().get("lcd-d7", DigitalOutput.class);
+        pi4j.registry().get("lcd-e", DigitalOutput.class).addListener(event -> {
+            if (event.state().isLow()) {
+                latch();
+            }
+        });
+    }
+
+    /**
+     * Latch the nibble on the data pins, the controller samples them on the falling edge of E.
+     */
+    private void latch() {
+        int nibble = (d4.isHigh() ? 0x01 : 0) | (d5.isHigh() ? 0x02 : 0) | (d6.isHigh() ? 0x04 : 0)
+                | (d7.isHigh() ? 0x08 : 0);
+        if (!fourBit) {
+            // Only D4-D7 are wired, so in 8-bit mode every latch is a command with its low bits read as zero. The
+            // only one that matters is the function set that selects a 4-bit interface.
+            if (!rs.isHigh() && nibble == 0x2) {
+                fourBit = true;
+            }
+            return;
+        }
+        if (highNibble < 0) {
+            highNibble = nibble;
+            return;
+        }
+        int value = (highNibble << 4) | nibble;
+        highNibble = -1;
+        if (rs.isHigh()) {
+            writeData(value);
+        } else {
+            writeCommand(value);
+        }
+    }
+
+    /**
+     * Execute a command byte. Only the commands that move the address counter or change DDRAM matter here.
+     * @param value The command.
+     */
+    private void writeCommand(int value) {
+        if ((value & 0x80) != 0) {
+            address = value & 0x7F; // Set DDRAM address
+        } else if (value == 0x01) {
+            Arrays.fill(ddram, (byte) ' '); // Clear display
+            address = 0;
+        } else if ((value & 0xFE) == 0x02) {
+            address = 0; // Return home
+        }
+    }
+
+    /**
+     * Store a character at the address counter and advance it, wrapping between the two lines as the controller does.
+     * @param value The character.
+     */
+    private void writeData(int value) {
+        if (address < ddram.length) {
+            ddram[address] = (byte) value;
+        }
+        address++;
+        if (address == LINE_LENGTH) address = 0x40;
+        else if (address >= 0x40 + LINE_LENGTH) address = 0;
+    }
+
+    /**
+     * Capture the current screen as a frame. Called after every commit.
+     */
+    public synchronized void capture() {
+        Frame frame = new Frame(System.currentTimeMillis(), line(0x00), line(0x40));
+        frames.addLast(frame);
+        while (frames.size() > history) {
+            frames.removeFirst();
+        }
+        captured++;
+        if (echo) {
+            System.out.println("LCD |" + frame.line1() + "|" + frame.line2() + "|");
+        }
+    }
+
+    /**
+     * Read the visible part of one line.
+     * @param start DDRAM address of the line.
+     * @return The 16 visible characters.
+     */
+    private String line(int start) {
+        return new String(ddram, start, COLUMNS, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Get the most recent frames.
+     * @return The captured frames, oldest first.
+     */
+    public synchronized List<Frame> getFrames() {
+        return List.copyOf(frames);
+    }
+
+    /**
+     * Get the number of frames captured since startup.
+     * @return The frame count.
+     */
+    public synchronized long getCaptured() {
+        return captured;
+    }
+
+    /**
+     * Set how many frames are kept. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param history Number of frames to keep.
+     */
+    public void setHistory(int history) {
+        this.history = history;
+    }
+
+    /**
+     * Print each frame to the console as it is captured. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param echo True to print frames.
+     */
+    public void setEcho(boolean echo) {
+        this.echo = echo;
+    }
+}
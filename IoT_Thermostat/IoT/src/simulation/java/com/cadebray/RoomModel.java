@@ -0,0 +1,214 @@
+package com.cadebray;
+
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Profile;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.state.State;
+import org.springframework.stereotype.Component;
+import java.util.Random;
+
+/**
+ * Lumped thermal model of the room the simulated thermostat sits in. The room loses heat to the outside in proportion
+ * to the temperature difference, and gains or loses a fixed amount per hour while the thermostat is calling for heat or
+ * cooling. A call is made the same way the LEDs show it: in HEAT below the setpoint, or in COOL above it. Readings add
+ * Gaussian noise and a slowly drifting sensor offset on top of the true temperature. The model advances on the wall
+ * clock, sped up by the time scale so long soak runs can cover days of room behaviour.
+ */
+@Component
+@Profile("simulation")
+@ConfigurationProperties(prefix = "simulation.room")
+public class RoomModel {
+    private final ObjectFactory<StateMachine<States, Events>> stateMachineFactory;
+    private final ObjectFactory<ThermostatProperties> thermostatProperties;
+    private Random random = new Random(1);
+
+    private double initialTemperature = 68.0;
+    private double outsideTemperature = 50.0;
+    private double lossPerHour = 0.5;
+    private double heatRate = 20.0;
+    private double coolRate = 15.0;
+    private double noise = 0.1;
+    private double drift = 0.05;
+    private double humidity = 45.0;
+    private double humidityNoise = 0.5;
+    private double timeScale = 1.0;
+
+    // Guarded by this
+    private double temperature = Double.NaN;
+    private double offset = 0.0;
+    private long lastUpdate;
+
+    /**
+     * A single reading of the room as the sensor sees it.
+     * @param celsius Measured temperature in degrees Celsius.
+     * @param humidity Measured relative humidity in percent.
+     */
+    public record Reading(double celsius, double humidity) {}
+
+    /**
+     * Constructor for the room model.
+     * @param stateMachine The state machine, read to see whether heat or cooling is being called for.
+     * @param thermostatProperties Holds the setpoint.
+     */
+    public RoomModel(ObjectFactory<StateMachine<States, Events>> stateMachine,
+                     ObjectFactory<ThermostatProperties> thermostatProperties) {
+        this.stateMachineFactory = stateMachine;
+        this.thermostatProperties = thermostatProperties;
+    }
+
+    /**
+     * Advance the model to now and take a reading. Called by the AHT20 emulator for every measurement.
+     * @return The noisy reading.
+     */
+    public synchronized Reading sample() {
+        advance();
+        double fahrenheit = temperature + offset + random.nextGaussian() * noise;
+        double relative = Math.clamp(humidity + random.nextGaussian() * humidityNoise, 0.0, 100.0);
+        return new Reading((fahrenheit - 32.0) * 5.0 / 9.0, relative);
+    }
+
+    /**
+     * Get the true room temperature, without noise or sensor drift.
+     * @return Temperature in degrees Fahrenheit.
+     */
+    public synchronized double getTemperature() {
+        advance();
+        return temperature;
+    }
+
+    /**
+     * Step the room forward by the time since the last update. Small steps are exact enough for the rates involved.
+     */
+    private void advance() {
+        long now = System.nanoTime();
+        if (Double.isNaN(temperature)) {
+            temperature = initialTemperature;
+            lastUpdate = now;
+            return;
+        }
+        double hours = (now - lastUpdate) / 3.6e12 * timeScale;
+        lastUpdate = now;
+
+        double change = (outsideTemperature - temperature) * lossPerHour;
+        int demand = demand();
+        if (demand > 0) change += heatRate;
+        if (demand < 0) change -= coolRate;
+        temperature += change * hours;
+        offset += drift * hours;
+    }
+
+    /**
+     * Work out what the thermostat is calling for.
+     * @return 1 when heating, -1 when cooling, 0 otherwise.
+     */
+    private int demand() {
+        State<States, Events> state = stateMachineFactory.getObject().getState();
+        if (state == null) {
+            return 0;
+        }
+        double setpoint = thermostatProperties.getObject().getSetpoint();
+        if (state.getId() == States.HEAT && temperature < setpoint) return 1;
+        if (state.getId() == States.COOL && temperature > setpoint) return -1;
+        return 0;
+    }
+
+    /**
+     * Set the room temperature when the simulation starts. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param initialTemperature Starting temperature in degrees Fahrenheit.
+     */
+    public void setInitialTemperature(double initialTemperature) {
+        this.initialTemperature = initialTemperature;
+    }
+
+    /**
+     * Set the temperature outside the room that it leaks heat towards. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param outsideTemperature Outside temperature in degrees Fahrenheit.
+     */
+    public void setOutsideTemperature(double outsideTemperature) {
+        this.outsideTemperature = outsideTemperature;
+    }
+
+    /**
+     * Set how quickly the room settles to the outside temperature. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param lossPerHour Fraction of the indoor to outdoor difference lost per hour.
+     */
+    public void setLossPerHour(double lossPerHour) {
+        this.lossPerHour = lossPerHour;
+    }
+
+    /**
+     * Set how quickly the heating warms the room. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param heatRate Degrees Fahrenheit per hour.
+     */
+    public void setHeatRate(double heatRate) {
+        this.heatRate = heatRate;
+    }
+
+    /**
+     * Set how quickly the cooling cools the room. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param coolRate Degrees Fahrenheit per hour.
+     */
+    public void setCoolRate(double coolRate) {
+        this.coolRate = coolRate;
+    }
+
+    /**
+     * Set the noise on each temperature reading. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param noise Standard deviation in degrees Fahrenheit.
+     */
+    public void setNoise(double noise) {
+        this.noise = noise;
+    }
+
+    /**
+     * Set how fast the sensor's offset drifts away from the true temperature. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param drift Degrees Fahrenheit per hour, may be negative.
+     */
+    public void setDrift(double drift) {
+        this.drift = drift;
+    }
+
+    /**
+     * Set the room's relative humidity. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param humidity Relative humidity in percent.
+     */
+    public void setHumidity(double humidity) {
+        this.humidity = humidity;
+    }
+
+    /**
+     * Set the noise on each humidity reading. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param humidityNoise Standard deviation in percent.
+     */
+    public void setHumidityNoise(double humidityNoise) {
+        this.humidityNoise = humidityNoise;
+    }
+
+    /**
+     * Set how much faster than real time the room changes. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param timeScale Simulated seconds per real second.
+     */
+    public void setTimeScale(double timeScale) {
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * Set the seed for the reading noise so runs can be repeated. This is a Spring Boot
+     * configuration property and will be set automatically from application properties.
+     * @param seed The random seed.
+     */
+    public void setSeed(long seed) {
+        this.random = new Random(seed);
+    }
+}
@@ -0,0 +1,85 @@
+package com.cadebray;
+
+import com.pi4j.Pi4J;
+import com.pi4j.context.Context;
+import com.pi4j.io.i2c.I2C;
+import com.pi4j.io.i2c.I2CConfig;
+import com.pi4j.io.i2c.I2CProvider;
+import com.pi4j.plugin.mock.provider.gpio.digital.MockDigitalInputProvider;
+import com.pi4j.plugin.mock.provider.gpio.digital.MockDigitalOutputProvider;
+import com.pi4j.plugin.mock.provider.i2c.MockI2CProvider;
+import com.pi4j.plugin.mock.provider.pwm.MockPwmProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Configuration class for the simulation profile. Replaces the hardware beans from Application with Pi4J's mock
+ * providers so the whole control loop runs on an ordinary machine: the AHT20 is emulated on a mock I2C bus and fed by
+ * the room model, the LCD is decoded back into frames by the LCD emulator, and the buttons are pressed by the button
+ * script. Everything above the hardware beans is the same code that runs on the device.
+ * <p>
+ * These classes are only compiled with the simulation Maven profile, so the mock providers never reach the device.
+ * Run with {@code mvn -Psimulation spring-boot:run -Dspring-boot.run.profiles=simulation}.
+ */
+@Configuration
+@Profile("simulation")
+public class SimulationConfig {
+
+    /**
+     * Create a Pi4J context backed entirely by mock providers.
+     * @return The simulated Pi4J context
+     */
+    @Bean
+    public Context pi4j() {
+        return Pi4J.newContextBuilder()
+                .add(MockDigitalInputProvider.newInstance(),
+                        MockDigitalOutputProvider.newInstance(),
+                        MockI2CProvider.newInstance(),
+                        MockPwmProvider.newInstance())
+                .build();
+    }
+
+    /**
+     * Create the LCDisplay bean on mock GPIO. It uses the device's timings so profiles of the render path stay
+     * realistic, and every committed frame is captured by the LCD emulator.
+     * @param pi4j The simulated Pi4J context
+     * @param emulator The LCD emulator decoding the pins
+     * @return The LCDisplay instance
+     */
+    @Bean
+    public LCDisplay lcd(Context pi4j, LcdEmulator emulator) {
+        LCDisplay lcd = new LCDisplay(pi4j, new CalibratedLcdTiming()) {
+            @Override
+            public synchronized long commitFrame(String... lines) {
+                long bytes = super.commitFrame(lines);
+                emulator.capture();
+                return bytes;
+            }
+        };
+        emulator.attach(pi4j);
+        return lcd;
+    }
+
+    /**
+     * Create the AHT20 sensor bean against the emulated sensor.
+     * @param pi4j The simulated Pi4J context
+     * @param room The room model supplying readings
+     * @param crcErrorRate Fraction of frames the emulator corrupts
+     * @param seed Seed for choosing the corrupted frames
+     * @return The AHT20 instance
+     */
+    @Bean
+    public AHT20 aht20(Context pi4j, RoomModel room,
+                       @Value("${simulation.sensor.crcErrorRate:0}") double crcErrorRate,
+                       @Value("${simulation.sensor.seed:1}") long seed) {
+        I2CConfig config = I2C.newConfigBuilder(pi4j)
+                .id("AHT20")
+                .bus(1)
+                .device(0x38)
+                .build();
+        I2CProvider provider = pi4j.provider(MockI2CProvider.ID);
+        return new AHT20(new Aht20Emulator(provider, config, room, crcErrorRate, seed));
+    }
+}
@@ -0,0 +1,162 @@
+package com.cadebray;
+
+import com.pi4j.Pi4J;
+import com.pi4j.context.Context;
+import com.pi4j.io.i2c.I2C;
+import com.pi4j.plugin.mock.provider.i2c.MockI2CProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.lang.management.ManagementFactory;
+import java.util.function.DoubleSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the AHT20 frame handling: parsing, the CRC, and that the steady-state loop allocates nothing. The
+ * allocation checks read each frame from Pi4J's mock I2C device into the same buffer and check its CRC, and parse
+ * frames, the same steps the bus thread takes for every measurement.
+ */
+class AHT20Test {
+    private static final int FRAMES = 20_000;
+
+    private final byte[] frame = new byte[7];
+    private final byte[] source = new byte[7];
+    private Context pi4j;
+    private I2C i2c;
+
+    @BeforeEach
+    void setUp() {
+        pi4j = Pi4J.newContextBuilder().add(MockI2CProvider.newInstance()).build();
+        i2c = pi4j.create(I2C.newConfigBuilder(pi4j)
+                .id("AHT20")
+                .bus(1)
+                .device(0x38)
+                .provider("mock-i2c")
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        pi4j.shutdown();
+    }
+
+    /**
+     * A frame built from known raw values parses back to them, and the datasheet's conversion formulas are applied.
+     */
+    @Test
+    void parsesRawValues() {
+        byte[] data = frame(0x80000, 0x60000);
+        SensorReadEvent sample = AHT20.parse(data, 42);
+        assertEquals(0x80000, sample.rawHumidity());
+        assertEquals(0x60000, sample.rawTemperature());
+        assertEquals(50.0, sample.getHumidity(), 1e-9);
+        assertEquals(25.0, sample.getCelsius(), 1e-9);
+        assertEquals(77.0, sample.getFahrenheit(), 1e-9);
+        assertEquals(42, sample.timestampNanos());
+    }
+
+    /**
+     * The CRC of a frame matches its check byte and catches a single flipped bit.
+     */
+    @Test
+    void crcDetectsCorruption() {
+        byte[] data = frame(0x12345, 0x6789A);
+        assertEquals(data[6] & 0xFF, AHT20.crc8(data, 6));
+        data[3] ^= 0x10;
+        assertNotEquals(data[6] & 0xFF, AHT20.crc8(data, 6));
+        // Datasheet initial value and an empty message
+        assertEquals(0xFF, AHT20.crc8(data, 0));
+    }
+
+    /**
+     * Once warmed up, reading a frame from the device into the reused buffer and checking its CRC allocates nothing.
+     */
+    @Test
+    void readPathAllocatesNothing() {
+        System.arraycopy(frame(0x80000, 0x60000), 0, source, 0, source.length);
+        assertEquals(0, leastAllocated(this::readFrames), "Bytes allocated reading " + FRAMES + " frames");
+    }
+
+    /**
+     * Once warmed up, parsing allocates nothing beyond the sample, and not even that when the caller only reads its
+     * fields and the JIT can keep them in registers.
+     */
+    @Test
+    void parseAllocatesNothing() {
+        System.arraycopy(frame(0x80000, 0x60000), 0, frame, 0, frame.length);
+        assertEquals(0, leastAllocated(this::parseFrames), "Bytes allocated parsing " + FRAMES + " frames");
+    }
+
+    /**
+     * Run a loop until it has been compiled, then measure it with the thread's allocation counter. The smallest of a
+     * few rounds is returned, so a stray allocation from class loading or a JIT deoptimization doesn't count.
+     * @param loop The loop to measure, returning a value derived from its work so it can't be optimized away.
+     * @return Bytes allocated by the cheapest measured round.
+     */
+    private static long leastAllocated(DoubleSupplier loop) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        double checksum = 0;
+        for (int round = 0; round < 20; round++) {
+            checksum += loop.getAsDouble();
+        }
+        long least = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            checksum += loop.getAsDouble();
+            least = Math.min(least, threads.getCurrentThreadAllocatedBytes() - before);
+        }
+        assertTrue(checksum != 0);
+        return least;
+    }
+
+    /**
+     * Feed frames through the mock device and read them back the way the bus thread does.
+     * @return Sum of a raw byte of every frame, so the work can't be optimized away.
+     */
+    private double readFrames() {
+        double sum = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            i2c.write(source, 0, source.length);
+            i2c.read(frame, 0, frame.length);
+            if (AHT20.crc8(frame, 6) != (frame[6] & 0xFF)) {
+                throw new IllegalStateException("Frame failed CRC check");
+            }
+            sum += frame[1] & 0xFF;
+        }
+        return sum;
+    }
+
+    /**
+     * Parse the same frame over and over.
+     * @return Sum of the parsed temperatures, so the work can't be optimized away.
+     */
+    private double parseFrames() {
+        double sum = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            sum += AHT20.parse(frame, i).getFahrenheit();
+        }
+        return sum;
+    }
+
+    /**
+     * Build a valid 7-byte frame around raw sensor values.
+     * @param humidity Raw 20-bit humidity.
+     * @param temperature Raw 20-bit temperature.
+     * @return The frame with its CRC.
+     */
+    private static byte[] frame(int humidity, int temperature) {
+        byte[] data = new byte[7];
+        data[0] = 0x1C; // Idle and calibrated
+        data[1] = (byte) (humidity >> 12);
+        data[2] = (byte) (humidity >> 4);
+        data[3] = (byte) (((humidity & 0x0F) << 4) | (temperature >> 16));
+        data[4] = (byte) (temperature >> 8);
+        data[5] = (byte) temperature;
+        data[6] = (byte) AHT20.crc8(data, 6);
+        return data;
+    }
+}
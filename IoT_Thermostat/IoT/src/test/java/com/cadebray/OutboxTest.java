@@ -0,0 +1,163 @@
+package com.cadebray;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the outbox file: wrapping past the end, recovery after a restart, dropping when full and compaction of
+ * state records.
+ */
+class OutboxTest {
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_HEADER_SIZE = 17;
+    private static final int PAYLOAD_SIZE = payload(0).length;
+    private static final int RECORD_SIZE = RECORD_HEADER_SIZE + PAYLOAD_SIZE;
+    // Room for ten records plus a tail too short for another one, so the writer has to wrap
+    private static final int CAPACITY = HEADER_SIZE + 10 * RECORD_SIZE + RECORD_SIZE / 2;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Records written past the end of the file continue at the front and are replayed in order after a restart, with
+     * their sequence numbers intact.
+     */
+    @Test
+    void wrapsAndReplaysInOrderAfterReopen() {
+        Outbox outbox = open();
+        for (int i = 0; i < 8; i++) {
+            outbox.append(Outbox.TYPE_TELEMETRY, payload(i));
+        }
+        for (int i = 0; i < 5; i++) {
+            Outbox.Entry entry = outbox.peek();
+            assertEquals(i, entry.sequence());
+            outbox.remove(entry.sequence());
+        }
+        // Two records fit before the end of the file, the rest wrap to the front
+        for (int i = 8; i < 14; i++) {
+            outbox.append(Outbox.TYPE_TELEMETRY, payload(i));
+        }
+        assertEquals(9, outbox.size());
+        outbox.close();
+
+        Outbox reopened = open();
+        assertEquals(9, reopened.size());
+        assertEquals(0, reopened.getDropped());
+        drainAndCheck(reopened, 5, 14);
+
+        // Numbering carries on where it left off
+        reopened.append(Outbox.TYPE_TELEMETRY, payload(14));
+        assertEquals(14, reopened.peek().sequence());
+    }
+
+    /**
+     * Once the file is full the oldest records make room for new ones, and what is left survives a restart.
+     */
+    @Test
+    void dropsOldestWhenFull() {
+        Outbox outbox = open();
+        for (int i = 0; i < 25; i++) {
+            outbox.append(Outbox.TYPE_TELEMETRY, payload(i));
+        }
+        long kept = outbox.size();
+        assertEquals(25 - kept, outbox.getDropped());
+        outbox.close();
+
+        Outbox reopened = open();
+        assertEquals(kept, reopened.size());
+        drainAndCheck(reopened, 25 - kept, 25);
+    }
+
+    /**
+     * A record whose bytes don't match its CRC marks the end of the log on recovery.
+     */
+    @Test
+    void tornRecordEndsTheLog() throws IOException {
+        Outbox outbox = open();
+        for (int i = 0; i < 3; i++) {
+            outbox.append(Outbox.TYPE_TELEMETRY, payload(i));
+        }
+        outbox.close();
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'#'}), HEADER_SIZE + 2L * RECORD_SIZE + RECORD_HEADER_SIZE);
+        }
+
+        Outbox reopened = open();
+        assertEquals(2, reopened.size());
+        drainAndCheck(reopened, 0, 2);
+    }
+
+    /**
+     * Only the newest state record is replayed, older ones are skipped without holding up other records.
+     */
+    @Test
+    void compactsStateRecords() {
+        Outbox outbox = open();
+        outbox.append(Outbox.TYPE_STATE, payload(0));
+        outbox.append(Outbox.TYPE_TELEMETRY, payload(1));
+        outbox.append(Outbox.TYPE_STATE, payload(2));
+        assertArrayEquals(payload(2), outbox.pendingState().payload());
+        outbox.close();
+
+        Outbox reopened = open();
+        assertTrue(reopened.hasPendingState());
+        Outbox.Entry telemetry = reopened.peek();
+        assertEquals(1, telemetry.sequence());
+        assertEquals(Outbox.TYPE_TELEMETRY, telemetry.type());
+        reopened.remove(telemetry.sequence());
+
+        Outbox.Entry state = reopened.peek();
+        assertEquals(2, state.sequence());
+        assertArrayEquals(payload(2), state.payload());
+        reopened.remove(state.sequence());
+        assertEquals(1, reopened.getCompacted());
+        assertFalse(reopened.hasPendingState());
+        assertNull(reopened.pendingState());
+    }
+
+    /**
+     * Peek and remove every pending record, checking the sequence numbers and payloads.
+     * @param outbox The outbox to drain.
+     * @param from The first expected sequence number.
+     * @param to The sequence number after the last expected one.
+     */
+    private static void drainAndCheck(Outbox outbox, long from, long to) {
+        for (long sequence = from; sequence < to; sequence++) {
+            Outbox.Entry entry = outbox.peek();
+            assertNotNull(entry, "Missing record " + sequence);
+            assertEquals(sequence, entry.sequence());
+            assertArrayEquals(payload((int) sequence), entry.payload());
+            outbox.remove(entry.sequence());
+        }
+        assertNull(outbox.peek());
+    }
+
+    private Outbox open() {
+        Outbox outbox = new Outbox();
+        outbox.setPath(file().toString());
+        outbox.setCapacity(CAPACITY);
+        outbox.open();
+        return outbox;
+    }
+
+    private Path file() {
+        return directory.resolve("outbox.dat");
+    }
+
+    private static byte[] payload(int index) {
+        return String.format("record-%04d", index).getBytes(StandardCharsets.US_ASCII);
+    }
+}
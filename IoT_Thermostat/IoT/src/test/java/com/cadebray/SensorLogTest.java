@@ -0,0 +1,283 @@
+package com.cadebray;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the sensor log on disk: samples survive a restart bit for bit, a partial block torn by a flush is recovered
+ * from its shadow copy, and after a torn full block the reopened log continues writing at that block.
+ */
+class SensorLogTest {
+    private static final long START = System.currentTimeMillis() - 3_600_000;
+    private static final int SAMPLES = 1000;
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random(11);
+    private final List<long[]> written = new ArrayList<>();
+    private long time = START;
+    private SensorLog log;
+
+    @BeforeEach
+    void setUp() {
+        log = open();
+        for (int i = 0; i < SAMPLES; i++) {
+            append(log);
+        }
+        log.close();
+    }
+
+    @AfterEach
+    void tearDown() {
+        log.close();
+    }
+
+    /**
+     * Every sample, including those of the partial block written by the final flush, reads back after a restart.
+     */
+    @Test
+    void samplesSurviveReopen() throws IOException {
+        assertTrue(blocksOnDisk() >= 3, "Blocks written " + blocksOnDisk());
+        log = open();
+        assertSamples(written, scan(log));
+    }
+
+    /**
+     * A torn block in the middle of the segment is where writing continues. The blocks before it are kept, its own
+     * samples are gone, and the next flush puts the new samples in its slot.
+     */
+    @Test
+    void reopenResumesAtTornBlock() throws IOException {
+        int blocks = blocksOnDisk();
+        assertTrue(blocks >= 3, "Blocks written " + blocks);
+        int kept = samplesInBlocks(2);
+        try (FileChannel channel = FileChannel.open(segment(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0x55}), 2L * TimeSeriesBlock.SIZE + 100);
+        }
+
+        log = open();
+        assertSamples(written.subList(0, kept), scan(log));
+
+        List<long[]> resumed = new ArrayList<>(written.subList(0, kept));
+        written.clear();
+        for (int i = 0; i < 50; i++) {
+            append(log);
+        }
+        log.flush();
+        resumed.addAll(written);
+        assertSamples(resumed, scan(log));
+        assertEquals(blocks, blocksOnDisk(), "The segment didn't grow");
+        assertSamples(written, decodeBlock(2));
+    }
+
+    /**
+     * A segment cut short inside its partial block, as when the power failed while the flush overwrote the slot, gets
+     * the block back from the shadow copy. Nothing is lost and writing continues in the same slot.
+     */
+    @Test
+    void partialBlockSurvivesTornSlot() throws IOException {
+        int blocks = blocksOnDisk();
+        try (FileChannel channel = FileChannel.open(segment(), StandardOpenOption.WRITE)) {
+            channel.truncate((blocks - 1L) * TimeSeriesBlock.SIZE + 1000);
+        }
+
+        log = open();
+        assertSamples(written, scan(log));
+        for (int i = 0; i < 50; i++) {
+            append(log);
+        }
+        log.flush();
+        assertSamples(written, scan(log));
+        assertEquals(blocks, blocksOnDisk());
+    }
+
+    /**
+     * When the slot holds an older copy of the partial block, because the power failed after the shadow copy was
+     * written but before the slot was, the newer shadow copy wins.
+     */
+    @Test
+    void newerShadowCopyWins() throws IOException {
+        int blocks = blocksOnDisk();
+        ByteBuffer older = ByteBuffer.allocate(TimeSeriesBlock.SIZE);
+        long lastSlot = (blocks - 1L) * TimeSeriesBlock.SIZE;
+        try (FileChannel channel = FileChannel.open(segment(), StandardOpenOption.READ)) {
+            channel.read(older, lastSlot);
+        }
+
+        log = open();
+        for (int i = 0; i < 5; i++) {
+            append(log);
+        }
+        log.close();
+        assertEquals(blocks, blocksOnDisk(), "The new samples fit the partial block");
+        try (FileChannel channel = FileChannel.open(segment(), StandardOpenOption.WRITE)) {
+            channel.write(older.flip(), lastSlot);
+        }
+
+        log = open();
+        assertSamples(written, scan(log));
+    }
+
+    /**
+     * With both copies of the partial block damaged, writing continues at its slot and only its samples are lost.
+     */
+    @Test
+    void reopenResumesAtTruncatedBlockWithoutShadow() throws IOException {
+        int blocks = blocksOnDisk();
+        int kept = samplesInBlocks(blocks - 1);
+        try (FileChannel channel = FileChannel.open(segment(), StandardOpenOption.WRITE)) {
+            channel.truncate((blocks - 1L) * TimeSeriesBlock.SIZE + 1000);
+        }
+        try (FileChannel channel = FileChannel.open(shadow(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0x55}), 100);
+        }
+
+        log = open();
+        assertSamples(written.subList(0, kept), scan(log));
+
+        List<long[]> resumed = new ArrayList<>(written.subList(0, kept));
+        written.clear();
+        for (int i = 0; i < 50; i++) {
+            append(log);
+        }
+        log.flush();
+        resumed.addAll(written);
+        assertSamples(resumed, scan(log));
+        assertEquals(blocks, blocksOnDisk());
+        assertSamples(written, decodeBlock(blocks - 1));
+    }
+
+    /**
+     * Published samples are only queued, nothing reaches the disk until the flush encodes and writes them.
+     */
+    @Test
+    void recordedSamplesWaitForTheFlush() throws IOException {
+        log = open();
+        byte[] before = Files.readAllBytes(segment());
+        for (int i = 0; i < 5; i++) {
+            double temperature = 70 + i;
+            log.record(new SensorReadEvent(45.0, temperature, (temperature - 32) * 5 / 9, 0, 0, System.nanoTime()));
+            written.add(new long[] {0, Double.doubleToRawLongBits(temperature), Double.doubleToRawLongBits(45.0)});
+        }
+        assertArrayEquals(before, Files.readAllBytes(segment()));
+
+        log.flush();
+        List<long[]> samples = scan(log);
+        assertEquals(written.size(), samples.size());
+        for (int i = SAMPLES; i < written.size(); i++) {
+            assertEquals(written.get(i)[1], samples.get(i)[1], "Temperature of sample " + i);
+            assertEquals(written.get(i)[2], samples.get(i)[2], "Humidity of sample " + i);
+        }
+    }
+
+    /**
+     * Append a noisy sample a second or so after the previous one, remembering its raw bits.
+     * @param target The log to append to.
+     */
+    private void append(SensorLog target) {
+        time += 1000 + random.nextInt(21) - 10;
+        double temperature = 68 + random.nextGaussian();
+        double humidity = 40 + random.nextGaussian() * 3;
+        target.append(time, temperature, humidity);
+        written.add(new long[] {time, Double.doubleToRawLongBits(temperature), Double.doubleToRawLongBits(humidity)});
+    }
+
+    /**
+     * Compare samples by their raw bits.
+     * @param expected The samples that should be there, in order.
+     * @param actual The samples read back.
+     */
+    private static void assertSamples(List<long[]> expected, List<long[]> actual) {
+        assertEquals(expected.size(), actual.size(), "Sample count");
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i), "Sample " + i);
+        }
+    }
+
+    private static List<long[]> scan(SensorLog source) {
+        List<long[]> samples = new ArrayList<>();
+        source.scan(Long.MIN_VALUE, Long.MAX_VALUE, (t, temperature, humidity) -> samples.add(new long[] {t,
+                Double.doubleToRawLongBits(temperature), Double.doubleToRawLongBits(humidity)}));
+        return samples;
+    }
+
+    /**
+     * Decode one block straight from the segment file.
+     * @param index Index of the block in the segment.
+     * @return Its samples, or an empty list if it is invalid.
+     * @throws IOException If the segment can't be read.
+     */
+    private List<long[]> decodeBlock(int index) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(TimeSeriesBlock.SIZE);
+        try (FileChannel channel = FileChannel.open(segment(), StandardOpenOption.READ)) {
+            channel.read(block, (long) index * TimeSeriesBlock.SIZE);
+        }
+        List<long[]> samples = new ArrayList<>();
+        if (TimeSeriesBlock.isValid(block, 0)) {
+            TimeSeriesBlock.decode(block, 0, Long.MIN_VALUE, Long.MAX_VALUE, (t, temperature, humidity) ->
+                    samples.add(new long[] {t, Double.doubleToRawLongBits(temperature),
+                            Double.doubleToRawLongBits(humidity)}));
+        }
+        return samples;
+    }
+
+    /**
+     * Count the samples held by the first blocks of the segment.
+     * @param blocks How many blocks to count.
+     * @return The number of samples in them.
+     * @throws IOException If the segment can't be read.
+     */
+    private int samplesInBlocks(int blocks) throws IOException {
+        int samples = 0;
+        for (int i = 0; i < blocks; i++) {
+            List<long[]> block = decodeBlock(i);
+            assertFalse(block.isEmpty(), "Block " + i + " is valid");
+            samples += block.size();
+        }
+        return samples;
+    }
+
+    private int blocksOnDisk() throws IOException {
+        return (int) (Files.size(segment()) / TimeSeriesBlock.SIZE);
+    }
+
+    private Path segment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = files.filter(file -> file.toString().endsWith(".tsl")).toList();
+            assertEquals(1, segments.size());
+            return segments.getFirst();
+        }
+    }
+
+    private Path shadow() {
+        return directory.resolve("partial.tss");
+    }
+
+    private SensorLog open() {
+        SensorLog opened = new SensorLog(new SensorHistory(new SimpleMeterRegistry()), new SimpleAsyncTaskExecutor());
+        opened.setDirectory(directory.toString());
+        opened.setSegmentBlocks(16);
+        opened.open();
+        return opened;
+    }
+}
@@ -0,0 +1,241 @@
+package com.cadebray;
+
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round-trip tests for the Gorilla codec. Every test encodes samples, decodes them again and compares the raw bits of
+ * the values, so a NaN payload or a negative zero that comes back different fails too.
+ */
+class TimeSeriesBlockTest {
+    private static final long START = 1_700_000_000_000L;
+    // Bits taken by the first sample of a block, stored raw
+    private static final int FIRST_SAMPLE_BITS = 3 * 64;
+
+    /**
+     * Each delta of delta on either side of a bucket boundary lands in the bucket it belongs to and decodes back.
+     */
+    @Test
+    void deltaOfDeltaBucketBoundaries() {
+        long[][] cases = {
+                {0, 1},
+                {-63, 2 + 7}, {64, 2 + 7},
+                {-64, 3 + 9}, {65, 3 + 9}, {-255, 3 + 9}, {256, 3 + 9},
+                {-256, 4 + 12}, {257, 4 + 12}, {-2047, 4 + 12}, {2048, 4 + 12},
+                {-2048, 4 + 64}, {2049, 4 + 64}, {1L << 40, 4 + 64}, {-(1L << 40), 4 + 64}
+        };
+        for (long[] c : cases) {
+            long deltaOfDelta = c[0];
+            TimeSeriesBlock block = new TimeSeriesBlock();
+            assertTrue(block.append(START, 70.0, 40.0));
+            assertTrue(block.append(START + deltaOfDelta, 70.0, 40.0));
+            // The values repeat, so each costs a single bit
+            assertEquals(FIRST_SAMPLE_BITS + c[1] + 2, block.getBitLength(), "Bits for delta of delta " + deltaOfDelta);
+            assertRoundTrip(new long[] {START, START + deltaOfDelta}, new double[] {70.0, 70.0},
+                    new double[] {40.0, 40.0});
+        }
+    }
+
+    /**
+     * Irregular timestamps walking through every bucket, including deltas that go backwards in time.
+     */
+    @Test
+    void irregularAndNegativeDeltas() {
+        long[] deltaOfDeltas = {1000, 0, 0, -63, 64, 63, -64, 65, -255, 256, -256, 257, -2047, 2048, -2048, 2049,
+                -5000, -5000, 3, -1_000_000, 7_000_000, -(1L << 41), 1L << 41, 0, -1};
+        long[] times = new long[deltaOfDeltas.length + 1];
+        times[0] = START;
+        long delta = 0;
+        for (int i = 0; i < deltaOfDeltas.length; i++) {
+            delta += deltaOfDeltas[i];
+            times[i + 1] = times[i] + delta;
+        }
+        assertTrue(Arrays.stream(times).anyMatch(t -> t < START), "Some timestamps go backwards");
+        double[] temperatures = new double[times.length];
+        double[] humidities = new double[times.length];
+        for (int i = 0; i < times.length; i++) {
+            temperatures[i] = 68.0 + i * 0.1;
+            humidities[i] = 45.0 - i * 0.25;
+        }
+        assertRoundTrip(times, temperatures, humidities);
+    }
+
+    /**
+     * Changes that only touch the low bits have more than 31 leading zeros, more than the 5 bit field holds. Mixed with
+     * changes of every other shape so both the new window and the reused window paths run.
+     */
+    @Test
+    void xorWithManyLeadingZeros() {
+        long base = Double.doubleToRawLongBits(72.5);
+        long[] values = {
+                base,
+                base ^ 1L,              // 63 leading zeros
+                base ^ 1L ^ (1L << 31), // 32 leading zeros
+                base ^ (1L << 32),      // 31 leading zeros
+                base ^ (1L << 33),      // 30 leading zeros, reuses nothing
+                base ^ (1L << 32),      // Fits the previous window
+                base ^ 0xFFFFL,         // 48 leading zeros
+                base ^ 0x8000L,
+                Double.doubleToRawLongBits(-72.5), // Only the sign bit changes
+                ~base,                  // Every bit changes, a 64 bit window
+                base,
+                base
+        };
+        long[] times = new long[values.length];
+        double[] temperatures = new double[values.length];
+        double[] humidities = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            times[i] = START + i * 1000L;
+            temperatures[i] = Double.longBitsToDouble(values[i]);
+            humidities[i] = Double.longBitsToDouble(values[values.length - 1 - i]);
+        }
+        assertRoundTrip(times, temperatures, humidities);
+    }
+
+    /**
+     * NaN payloads, infinities and both zeros come back bit for bit.
+     */
+    @Test
+    void specialValues() {
+        double[] specials = {Double.NaN, Double.longBitsToDouble(0x7FF8_0000_0000_0001L),
+                Double.longBitsToDouble(0xFFF0_0000_0000_0001L), Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                0.0, -0.0, Double.MIN_VALUE, Double.MAX_VALUE, 71.3, Double.NaN};
+        long[] times = new long[specials.length];
+        double[] humidities = new double[specials.length];
+        for (int i = 0; i < specials.length; i++) {
+            times[i] = START + i * 1000L;
+            humidities[i] = (i % 2 == 0) ? Double.NaN : 50.0;
+        }
+        assertRoundTrip(times, specials, humidities);
+    }
+
+    /**
+     * Noisy samples at a jittery rate fill blocks until append refuses, and every full block decodes back.
+     */
+    @Test
+    void fullBlocksOfNoisySamples() {
+        Random random = new Random(7);
+        for (int run = 0; run < 20; run++) {
+            List<long[]> samples = new ArrayList<>();
+            TimeSeriesBlock block = new TimeSeriesBlock();
+            long time = START;
+            while (true) {
+                time += 1000 + random.nextInt(41) - 20 + (random.nextInt(50) == 0 ? random.nextInt(100_000) : 0);
+                double temperature = 60 + random.nextGaussian() * 5;
+                double humidity = (random.nextInt(10) == 0) ? Double.NaN : 40 + random.nextDouble();
+                if (!block.append(time, temperature, humidity)) break;
+                samples.add(new long[] {time, Double.doubleToRawLongBits(temperature),
+                        Double.doubleToRawLongBits(humidity)});
+            }
+            assertTrue(samples.size() > 100, "Samples per block " + samples.size());
+            ByteBuffer stored = copy(block.finish());
+            assertTrue(TimeSeriesBlock.isValid(stored, 0));
+            List<long[]> decoded = new ArrayList<>();
+            TimeSeriesBlock.decode(stored, 0, Long.MIN_VALUE, Long.MAX_VALUE, (t, temperature, humidity) ->
+                    decoded.add(new long[] {t, Double.doubleToRawLongBits(temperature),
+                            Double.doubleToRawLongBits(humidity)}));
+            assertEquals(samples.size(), decoded.size());
+            for (int i = 0; i < samples.size(); i++) {
+                assertArrayEquals(samples.get(i), decoded.get(i), "Sample " + i);
+            }
+        }
+    }
+
+    /**
+     * Only samples inside the range reach the visitor, and blocks outside it are skipped from the header.
+     */
+    @Test
+    void decodesOnlyTheRange() {
+        TimeSeriesBlock block = new TimeSeriesBlock();
+        for (int i = 0; i < 100; i++) {
+            block.append(START + i * 1000L, 70 + i, 40);
+        }
+        ByteBuffer stored = copy(block.finish());
+        List<Long> times = new ArrayList<>();
+        assertEquals(11, TimeSeriesBlock.decode(stored, 0, START + 10_000, START + 20_000, (t, v, h) -> times.add(t)));
+        assertEquals(START + 10_000, times.getFirst());
+        assertEquals(START + 20_000, times.getLast());
+        assertEquals(0, TimeSeriesBlock.decode(stored, 0, START + 100_000, Long.MAX_VALUE, (t, v, h) -> times.add(t)));
+    }
+
+    /**
+     * A torn or truncated block fails validation, wherever the damage is.
+     */
+    @Test
+    void crcRejectsDamagedBlocks() {
+        TimeSeriesBlock block = new TimeSeriesBlock();
+        for (int i = 0; i < 500; i++) {
+            block.append(START + i * 1000L, 70 + Math.sin(i), 40 + Math.cos(i));
+        }
+        ByteBuffer stored = copy(block.finish());
+        assertTrue(TimeSeriesBlock.isValid(stored, 0));
+        int usedBytes = 32 + (int) ((block.getBitLength() + 7) / 8);
+
+        // A single flipped bit in the header, the start, middle and end of the payload
+        for (int offset : new int[] {5, 12, 20, 25, 32, 33, usedBytes / 2, usedBytes - 1}) {
+            ByteBuffer torn = copy(stored);
+            torn.put(offset, (byte) (torn.get(offset) ^ 0x04));
+            assertFalse(TimeSeriesBlock.isValid(torn, 0), "Bit flipped at " + offset);
+        }
+
+        // The second half of the block never reached the disk
+        ByteBuffer halfWritten = copy(stored);
+        for (int offset = usedBytes / 2; offset < TimeSeriesBlock.SIZE; offset++) {
+            halfWritten.put(offset, (byte) 0);
+        }
+        assertFalse(TimeSeriesBlock.isValid(halfWritten, 0));
+
+        // The file ends inside the block
+        assertFalse(TimeSeriesBlock.isValid(ByteBuffer.wrap(Arrays.copyOf(stored.array(), TimeSeriesBlock.SIZE - 1)),
+                0));
+
+        // An empty slot
+        assertFalse(TimeSeriesBlock.isValid(ByteBuffer.allocate(TimeSeriesBlock.SIZE), 0));
+    }
+
+    /**
+     * Encode samples into one block, check it validates, decode it and compare the raw bits.
+     * @param times Timestamps.
+     * @param temperatures Temperatures.
+     * @param humidities Humidities.
+     */
+    private static void assertRoundTrip(long[] times, double[] temperatures, double[] humidities) {
+        TimeSeriesBlock block = new TimeSeriesBlock();
+        for (int i = 0; i < times.length; i++) {
+            assertTrue(block.append(times[i], temperatures[i], humidities[i]), "Sample " + i + " fits");
+        }
+        ByteBuffer stored = copy(block.finish());
+        assertTrue(TimeSeriesBlock.isValid(stored, 0));
+
+        int[] index = {0};
+        int visited = TimeSeriesBlock.decode(stored, 0, Long.MIN_VALUE, Long.MAX_VALUE, (t, temperature, humidity) -> {
+            int i = index[0]++;
+            assertEquals(times[i], t, "Time of sample " + i);
+            assertEquals(Double.doubleToRawLongBits(temperatures[i]), Double.doubleToRawLongBits(temperature),
+                    "Temperature of sample " + i);
+            assertEquals(Double.doubleToRawLongBits(humidities[i]), Double.doubleToRawLongBits(humidity),
+                    "Humidity of sample " + i);
+        });
+        assertEquals(times.length, visited);
+    }
+
+    /**
+     * Copy a block into a buffer of its own, the way it would be read back from disk.
+     * @param block The block.
+     * @return A heap buffer holding the same bytes.
+     */
+    private static ByteBuffer copy(ByteBuffer block) {
+        byte[] bytes = new byte[TimeSeriesBlock.SIZE];
+        block.get(0, bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,197 @@
+package com.cadebray;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestTemplate;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks ApiService round trips against an in-process stub of the backend on the loopback interface, so the
+ * numbers cover the client side of a request (building it, the HttpClient, parsing and caching) without any network
+ * or database time. A RestTemplate request for the same state is included as the baseline ApiService moved away from.
+ * <p>
+ * Each benchmark also runs in sample time mode, which reports the latency distribution. A poll stuck behind a slow
+ * response holds up the network lane, so the tail matters as much as the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+// The stub writes headers and body separately, without TCP_NODELAY that stalls every response on a delayed ACK
+@Fork(value = 2, jvmArgsAppend = {"-Xms256m", "-Xmx256m", "-Dsun.net.httpserver.nodelay=true"})
+public class ApiServiceBenchmark {
+    private static final String UNCHANGED_DEVICE = "6650f1c2a4b3e2d1c0b9a876";
+    private static final String CHANGING_DEVICE = "6650f1c2a4b3e2d1c0b9a877";
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private Path tokenDirectory;
+    private final AtomicLong version = new AtomicLong();
+    private String token;
+
+    private ApiService unchanged;
+    private ApiService changing;
+    private RestTemplate restTemplate;
+    private HttpEntity<Void> authorized;
+    private String root;
+
+    @Setup
+    public void setup() throws IOException {
+        long now = System.currentTimeMillis() / 1000;
+        String claims = "{\"_id\":\"" + UNCHANGED_DEVICE + "\",\"iat\":" + now + ",\"exp\":" + (now + 86400) + "}";
+        token = base64("{\"alg\":\"HS256\",\"typ\":\"JWT\"}") + "." + base64(claims) + "." + base64("signature");
+
+        serverThreads = Executors.newFixedThreadPool(4);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/iot/", this::handle);
+        server.setExecutor(serverThreads);
+        server.start();
+        root = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        tokenDirectory = Files.createTempDirectory("thermostat-bench");
+        unchanged = apiService(UNCHANGED_DEVICE);
+        changing = apiService(CHANGING_DEVICE);
+        // Prime the token and the state cache so the benchmarks measure the steady state
+        unchanged.getState();
+        changing.getState();
+
+        restTemplate = new RestTemplate();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+        authorized = new HttpEntity<>(headers);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.stop(0);
+        serverThreads.shutdownNow();
+        try (var files = Files.list(tokenDirectory)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(tokenDirectory);
+    }
+
+    /**
+     * Build an ApiService wired the way Spring wires it, pointed at the stub.
+     * @param deviceId The device to log in as.
+     * @return The service.
+     */
+    private ApiService apiService(String deviceId) {
+        HttpTransport transport = new HttpTransport();
+        transport.initialize();
+        MeterRegistry registry = new SimpleMeterRegistry();
+        TokenManager tokens = new TokenManager(transport, registry);
+        tokens.setCachePath(tokenDirectory.resolve(deviceId).toString());
+
+        ApiService service = new ApiService(transport, new Outbox(), tokens, registry);
+        service.setRootAddress(root);
+        service.setDeviceId(deviceId);
+        service.setDeviceSecret("secret");
+        return service;
+    }
+
+    /**
+     * The poll when nothing changed, answered with a 304 and no body.
+     * @return Null, the state didn't change.
+     */
+    @Benchmark
+    public CurrentState stateNotModified() {
+        return unchanged.getStateIfChanged();
+    }
+
+    /**
+     * The poll when the state changed, a full 200 response that is parsed and cached.
+     * @return The new state.
+     */
+    @Benchmark
+    public CurrentState stateChanged() {
+        return changing.getStateIfChanged();
+    }
+
+    /**
+     * A forced login, including writing the token cache.
+     */
+    @Benchmark
+    public void login() {
+        unchanged.generateLogin();
+    }
+
+    /**
+     * The same state request made the way ApiService used to, with RestTemplate and no conditional request.
+     * @return The state.
+     */
+    @Benchmark
+    public CurrentState restTemplateState() {
+        return restTemplate.exchange(root + "/api/iot/" + UNCHANGED_DEVICE, HttpMethod.GET, authorized,
+                CurrentState.class).getBody();
+    }
+
+    /**
+     * Stub of the backend's device routes. The changing device gets a new version on every request so its ETag never
+     * matches.
+     * @param exchange The request.
+     * @throws IOException If the response can't be written.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            byte[] body;
+            if (path.equals("/api/iot/login")) {
+                body = ("{\"token\":\"" + token + "\",\"device\":\"" + UNCHANGED_DEVICE + "\"}")
+                        .getBytes(StandardCharsets.UTF_8);
+            } else {
+                String id = path.substring("/api/iot/".length());
+                long current = id.equals(CHANGING_DEVICE) ? version.incrementAndGet() : 0;
+                String etag = "\"" + id + "-" + current + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                body = ("{\"_id\":\"" + id + "\",\"name\":\"Living Room\",\"state\":\"HEAT\",\"setTemp\":"
+                        + (70 + current % 5) + ",\"version\":" + current + "}").getBytes(StandardCharsets.UTF_8);
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    /**
+     * Encode a JWT segment.
+     * @param json The segment's JSON.
+     * @return The unpadded base64url encoding.
+     */
+    private static String base64(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
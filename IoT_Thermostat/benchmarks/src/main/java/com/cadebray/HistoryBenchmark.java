@@ -0,0 +1,98 @@
+package com.cadebray;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the in-memory sensor history: folding one sample into all three tiers, which should allocate nothing,
+ * and range queries at each resolution against tiers filled with a month of one second samples.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms256m", "-Xmx256m"})
+public class HistoryBenchmark {
+    private static final int SAMPLES = 1024; // Power of two so the index can be masked
+
+    private final SensorReadEvent[] samples = new SensorReadEvent[SAMPLES];
+    private SensorHistory history;
+    private HistoryTier minutes;
+    private HistoryTier quarters;
+    private long now;
+    private long clock;
+    private int next = 0;
+
+    /**
+     * Build a set of samples from a fixed seed and fill the 1 and 15 minute tiers with 30 days of one second readings.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            double fahrenheit = 68 + random.nextGaussian();
+            samples[i] = new SensorReadEvent(45 + random.nextGaussian(), fahrenheit, (fahrenheit - 32) * 5 / 9,
+                    0, 0, System.nanoTime());
+        }
+        history = new SensorHistory(new SimpleMeterRegistry());
+
+        now = System.currentTimeMillis();
+        minutes = new HistoryTier(TimeUnit.MINUTES.toMillis(1), 1_440);
+        quarters = new HistoryTier(TimeUnit.MINUTES.toMillis(15), 2_880);
+        long start = now - TimeUnit.DAYS.toMillis(30);
+        for (long t = start; t <= now; t += 1_000) {
+            double fahrenheit = 68 + random.nextGaussian();
+            double humidity = 45 + random.nextGaussian();
+            minutes.add(t, fahrenheit, humidity);
+            quarters.add(t, fahrenheit, humidity);
+        }
+        clock = now;
+    }
+
+    /**
+     * The per sample path, one sample folded into every tier.
+     */
+    @Benchmark
+    public void record() {
+        history.record(samples[next++ & (SAMPLES - 1)]);
+    }
+
+    /**
+     * Direct insert into a single tier with an advancing clock, so buckets keep being reused.
+     */
+    @Benchmark
+    public void tierAdd() {
+        clock += 1_000;
+        minutes.add(clock, 68.0, 45.0);
+    }
+
+    /**
+     * A full month at 15 minute resolution, the largest range the API returns.
+     * @return The range.
+     */
+    @Benchmark
+    public HistoryRange queryMonth() {
+        return quarters.query(now - TimeUnit.DAYS.toMillis(30), now);
+    }
+
+    /**
+     * A full day at 1 minute resolution.
+     * @return The range.
+     */
+    @Benchmark
+    public HistoryRange queryDay() {
+        return minutes.query(now - TimeUnit.DAYS.toMillis(1), now);
+    }
+}
@@ -0,0 +1,66 @@
+package com.cadebray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks Jackson serialization of the backend payloads through the shared HttpTransport mapper, exactly as
+ * ApiService uses it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms256m", "-Xmx256m"})
+public class JsonBenchmark {
+    // A state response as the backend sends it, including a field the device doesn't map
+    private static final byte[] STATE_JSON = ("{\"_id\":\"6650f1c2a4b3e2d1c0b9a876\",\"name\":\"Living Room\","
+            + "\"state\":\"HEAT\",\"setTemp\":70.0,\"currentTemp\":68.4,\"lastChecked\":\"2025-06-01T12:30:15.000Z\","
+            + "\"version\":42,\"__v\":0}").getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] LOGIN_JSON = ("{\"token\":\"eyJhbGciOiJIUzI1NiIsInR5cCI6IkpXVCJ9."
+            + "eyJfaWQiOiI2NjUwZjFjMmE0YjNlMmQxYzBiOWE4NzYiLCJpYXQiOjE3MTcyNDUwMTUsImV4cCI6MTcxNzI0ODYxNX0."
+            + "c2lnbmF0dXJlLW5vdC1jaGVja2VkLWJ5LXRoZS1kZXZpY2U\",\"device\":\"6650f1c2a4b3e2d1c0b9a876\"}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private HttpTransport transport;
+    private CurrentState update;
+
+    @Setup
+    public void setup() {
+        transport = new HttpTransport();
+        transport.initialize();
+
+        // A write-behind update, only the changed fields are set
+        update = new CurrentState();
+        update.setState("COOL");
+        update.setSetTemp(72.0);
+        update.setCurrentTemp(71.3);
+    }
+
+    @Benchmark
+    public CurrentState readState() {
+        return transport.fromJson(STATE_JSON, CurrentState.class);
+    }
+
+    @Benchmark
+    public byte[] writeState() {
+        return transport.toJson(update);
+    }
+
+    @Benchmark
+    public loginResponse readLogin() {
+        return transport.fromJson(LOGIN_JSON, loginResponse.class);
+    }
+}
@@ -0,0 +1,110 @@
+package com.cadebray;
+
+import com.pi4j.Pi4J;
+import com.pi4j.context.Context;
+import com.pi4j.plugin.mock.provider.gpio.digital.MockDigitalInputProvider;
+import com.pi4j.plugin.mock.provider.gpio.digital.MockDigitalOutputProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the LCD driver's encoding of text into nibbles and GPIO writes against Pi4J's mock GPIO provider. The
+ * controller's wait times are skipped so only the CPU cost of the driver and the GPIO layer is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms256m", "-Xmx256m"})
+public class LcdBenchmark {
+    // Two frames as DisplayService draws them, one second apart
+    private static final String[] TICK = {"12:30:15 HEAT", "Temp: 70.4F"};
+    private static final String[] TOCK = {"12:30:16 HEAT", "Temp: 70.4F"};
+    // Two frames with every cell different
+    private static final String[] FULL_A = {"ABCDEFGHIJKLMNOP", "QRSTUVWXYZ012345"};
+    private static final String[] FULL_B = {"abcdefghijklmnop", "qrstuvwxyz6789!?"};
+
+    private Context pi4j;
+    private LCDisplay display;
+    private boolean flip = false;
+
+    /**
+     * Timing strategy that never waits, the mock GPIO has no controller to wait for.
+     */
+    private static class NoWaitTiming implements LcdTiming {
+        @Override
+        public void enableHold() {
+        }
+
+        @Override
+        public void awaitExecution(int value, boolean data) {
+        }
+
+        @Override
+        public void delayNanos(long nanos) {
+        }
+    }
+
+    @Setup
+    public void setup() {
+        pi4j = Pi4J.newContextBuilder()
+                .add(MockDigitalOutputProvider.newInstance(), MockDigitalInputProvider.newInstance())
+                .build();
+        display = new LCDisplay(pi4j, new NoWaitTiming());
+        display.initialize();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pi4j.shutdown();
+    }
+
+    /**
+     * The common case, a clock tick that changes a single cell.
+     * @return Bytes sent to the controller.
+     */
+    @Benchmark
+    public long commitClockTick() {
+        flip = !flip;
+        return display.commitFrame(flip ? TICK : TOCK);
+    }
+
+    /**
+     * The worst case for the diff, every cell changes.
+     * @return Bytes sent to the controller.
+     */
+    @Benchmark
+    public long commitFullFrame() {
+        flip = !flip;
+        return display.commitFrame(flip ? FULL_A : FULL_B);
+    }
+
+    /**
+     * A frame identical to the one on screen, nothing should be written.
+     * @return Bytes sent to the controller.
+     */
+    @Benchmark
+    public long commitUnchanged() {
+        return display.commitFrame(TICK);
+    }
+
+    /**
+     * The original full rewrite path, for comparison with the frame diff.
+     */
+    @Benchmark
+    public void print() {
+        flip = !flip;
+        display.print(flip ? "12:30:15 HEAT\nTemp: 70.4F" : "12:30:16 HEAT\nTemp: 70.4F");
+    }
+}
@@ -0,0 +1,97 @@
+package com.cadebray;
+
+import com.pi4j.Pi4J;
+import com.pi4j.context.Context;
+import com.pi4j.plugin.mock.provider.gpio.digital.MockDigitalInputProvider;
+import com.pi4j.plugin.mock.provider.gpio.digital.MockDigitalOutputProvider;
+import com.pi4j.plugin.mock.provider.pwm.MockPwmProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the cost the LED service adds to every sensor event against Pi4J's mock GPIO and PWM providers:
+ * readings that leave the desired state alone, and readings that cross the hysteresis band and hand a new target to
+ * the control thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms256m", "-Xmx256m"})
+public class LedBenchmark {
+    private static final int SAMPLES = 1024; // Power of two so the index can be masked
+    private static final double SETPOINT = 72.0;
+
+    private final FilteredSensorEvent[] held = new FilteredSensorEvent[SAMPLES];
+    private final FilteredSensorEvent[] crossing = new FilteredSensorEvent[SAMPLES];
+    private Context pi4j;
+    private LedService leds;
+    private int next = 0;
+
+    /**
+     * Build readings from a fixed seed and put the service in HEAT. The held readings stay inside the hysteresis band
+     * above the setpoint, the crossing readings alternate between well above and well below it.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            double noise = random.nextGaussian() * 0.3;
+            held[i] = reading(SETPOINT + 0.2 + noise * 0.1, SETPOINT + noise);
+            double swing = (i % 2 == 0) ? 1.0 : -1.0;
+            crossing[i] = reading(SETPOINT + swing, SETPOINT + swing + noise);
+        }
+
+        pi4j = Pi4J.newContextBuilder()
+                .add(MockDigitalOutputProvider.newInstance(), MockDigitalInputProvider.newInstance(),
+                        MockPwmProvider.newInstance())
+                .build();
+        leds = new LedService(pi4j, new SensorFilter(event -> {}), new ThermostatProperties(() -> null),
+                new SimpleAsyncTaskExecutor(), new SimpleMeterRegistry());
+        leds.setPwmProvider("mock-pwm");
+        leds.initialize();
+        leds.onEnterHeat();
+        leds.updateOnEvent(reading(SETPOINT + 1, SETPOINT + 1));
+    }
+
+    private static FilteredSensorEvent reading(double filtered, double raw) {
+        SensorReadEvent sample = new SensorReadEvent(45, raw, (raw - 32) * 5 / 9, 0, 0, System.nanoTime());
+        return new FilteredSensorEvent(filtered, 45, sample);
+    }
+
+    @TearDown
+    public void tearDown() {
+        leds.shutdown();
+        pi4j.shutdown();
+    }
+
+    /**
+     * The common case, a reading that leaves the steady light as it is.
+     */
+    @Benchmark
+    public void updateHeld() {
+        leds.updateOnEvent(held[next++ & (SAMPLES - 1)]);
+    }
+
+    /**
+     * Every reading switches between steady and pulsing and wakes the control thread.
+     */
+    @Benchmark
+    public void updateCrossing() {
+        leds.updateOnEvent(crossing[next++ & (SAMPLES - 1)]);
+    }
+}
@@ -0,0 +1,77 @@
+package com.cadebray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the AHT20 frame handling done for every sample: the CRC check and the conversion of the raw readings into
+ * a SensorReadEvent. Frames are generated from a fixed seed so every run sees the same data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms256m", "-Xmx256m"})
+public class SensorBenchmark {
+    private static final int FRAMES = 1024; // Power of two so the index can be masked
+
+    private final byte[][] frames = new byte[FRAMES][];
+    private int next = 0;
+
+    /**
+     * Build a set of valid 7-byte frames with random readings and a correct CRC.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] frame = new byte[7];
+            random.nextBytes(frame);
+            frame[0] = 0x18; // Calibrated and idle
+            frame[6] = (byte) AHT20.crc8(frame, 6);
+            frames[i] = frame;
+        }
+    }
+
+    /**
+     * Get the next frame, cycling through the set so the branch predictor can't learn a single input.
+     * @return A valid frame.
+     */
+    private byte[] nextFrame() {
+        return frames[next++ & (FRAMES - 1)];
+    }
+
+    @Benchmark
+    public int crc8() {
+        return AHT20.crc8(nextFrame(), 6);
+    }
+
+    @Benchmark
+    public SensorReadEvent parse() {
+        return AHT20.parse(nextFrame(), 0L);
+    }
+
+    /**
+     * The full per sample path as the sampler runs it, CRC check then conversion.
+     * @return The parsed sample, or null if the CRC didn't match.
+     */
+    @Benchmark
+    public SensorReadEvent checkAndParse() {
+        byte[] frame = nextFrame();
+        if (AHT20.crc8(frame, 6) != (frame[6] & 0xFF)) {
+            return null;
+        }
+        return AHT20.parse(frame, 0L);
+    }
+}
@@ -0,0 +1,135 @@
+package com.cadebray;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks the on-disk sensor log: compressing one sample into the open block, which should allocate nothing, and
+ * memory-mapped range scans over a day of one second samples. The samples are quantised the way the AHT20 reports
+ * them, so the blocks compress as they would on the device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms256m", "-Xmx256m"})
+public class SensorLogBenchmark {
+    private static final int SAMPLES = 1024; // Power of two so the index can be masked
+
+    private final double[] temperatures = new double[SAMPLES];
+    private final double[] humidities = new double[SAMPLES];
+    private final TimeSeriesBlock block = new TimeSeriesBlock();
+    private Path directory;
+    private SensorLog log;
+    private long now;
+    private long clock;
+    private int next = 0;
+
+    /**
+     * Generate a slow random walk of AHT20 readings from a fixed seed and log a day of them, one per second.
+     * @throws IOException If the temporary directory can't be created.
+     */
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        long rawTemperature = 440_000; // About 68 F
+        long rawHumidity = 470_000; // About 45 %
+        for (int i = 0; i < SAMPLES; i++) {
+            rawTemperature += random.nextInt(41) - 20;
+            rawHumidity += random.nextInt(41) - 20;
+            temperatures[i] = (rawTemperature / 1048576.0 * 200 - 50) * 9 / 5 + 32;
+            humidities[i] = rawHumidity / 1048576.0 * 100;
+        }
+
+        directory = Files.createTempDirectory("sensor-log");
+        log = new SensorLog(new SensorHistory(new SimpleMeterRegistry()), new SimpleAsyncTaskExecutor());
+        log.setDirectory(directory.toString());
+        log.open();
+        now = System.currentTimeMillis();
+        long start = now - TimeUnit.DAYS.toMillis(1);
+        int i = 0;
+        for (long t = start; t <= now; t += 1_000 + random.nextInt(5)) {
+            log.append(t, temperatures[i & (SAMPLES - 1)], humidities[i & (SAMPLES - 1)]);
+            i++;
+        }
+        log.flush();
+        clock = now;
+    }
+
+    /**
+     * Remove the log written by the setup.
+     * @throws IOException If the files can't be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * The per sample encoding on its own, starting a new block whenever one fills.
+     */
+    @Benchmark
+    public void encode() {
+        clock += 1_000;
+        int i = next++ & (SAMPLES - 1);
+        if (!block.append(clock, temperatures[i], humidities[i])) {
+            block.reset();
+            block.append(clock, temperatures[i], humidities[i]);
+        }
+    }
+
+    /**
+     * Ten minutes from the middle of the day, as the raw history API returns by default.
+     * @param blackhole Consumes the decoded samples.
+     * @return The number of samples decoded.
+     */
+    @Benchmark
+    public int scanTenMinutes(Blackhole blackhole) {
+        long from = now - TimeUnit.HOURS.toMillis(12);
+        return log.scan(from, from + TimeUnit.MINUTES.toMillis(10), (t, temperature, humidity) -> {
+            blackhole.consume(t);
+            blackhole.consume(temperature);
+            blackhole.consume(humidity);
+        });
+    }
+
+    /**
+     * The whole day, as the startup refill of the in-memory history reads it.
+     * @param blackhole Consumes the decoded samples.
+     * @return The number of samples decoded.
+     */
+    @Benchmark
+    public int scanDay(Blackhole blackhole) {
+        return log.scan(now - TimeUnit.DAYS.toMillis(1), now, (t, temperature, humidity) -> {
+            blackhole.consume(t);
+            blackhole.consume(temperature);
+            blackhole.consume(humidity);
+        });
+    }
+}
@@ -0,0 +1,87 @@
+package com.cadebray;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineEventResult;
+import reactor.core.publisher.Mono;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks Spring Statemachine dispatch for each event, using the device's real StateMachineConfig. The LEDs,
+ * display and backend writer are replaced with mocks so only the state machine and its listener are measured. Console
+ * output from the transition actions is discarded so the terminal isn't what gets measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms256m", "-Xmx256m"})
+public class StateMachineBenchmark {
+    @Param({"BUTTON_CYCLE", "BUTTON_RAISE", "BUTTON_LOWER", "SET_MODE"})
+    private Events event;
+
+    private AnnotationConfigApplicationContext context;
+    private StateMachine<States, Events> stateMachine;
+    private PrintStream console;
+    private boolean flip = false;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // Mocks are registered as finished singletons so Spring doesn't try to inject their own dependencies
+        context = new AnnotationConfigApplicationContext();
+        ConfigurableListableBeanFactory beans = context.getBeanFactory();
+        beans.registerSingleton("ledService", Mockito.mock(LedService.class));
+        beans.registerSingleton("thermostatProperties", Mockito.mock(ThermostatProperties.class));
+        beans.registerSingleton("remoteStateWriter", Mockito.mock(RemoteStateWriter.class));
+        beans.registerSingleton("displayService", Mockito.mock(DisplayService.class));
+        beans.registerSingleton("meterRegistry", new SimpleMeterRegistry());
+        context.register(StateMachineConfig.class);
+        context.refresh();
+        stateMachine = context.getBean(StateMachine.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        System.setOut(console);
+    }
+
+    /**
+     * Send one event and wait for it to be handled, the same way the button and remote handlers do. SET_MODE
+     * alternates between two modes so every call is a real transition.
+     * @return The result of the event.
+     */
+    @Benchmark
+    public StateMachineEventResult<States, Events> sendEvent() {
+        MessageBuilder<Events> message = MessageBuilder.withPayload(event)
+                .setHeader(StateMachineConfig.SENT_AT_HEADER, System.nanoTime());
+        if (event == Events.SET_MODE) {
+            flip = !flip;
+            message.setHeader(StateMachineConfig.TARGET_STATE_HEADER, flip ? States.HEAT : States.COOL);
+        }
+        return stateMachine.sendEvent(Mono.just(message.build())).blockLast();
+    }
+}
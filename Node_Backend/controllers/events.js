@@ -0,0 +1,110 @@
+const mongoose = require('mongoose');
+const Model = mongoose.model('iot');
+
+// Comment lines keep idle connections open through proxies and let clients detect a dead stream.
+const HEARTBEAT_MS = 25000;
+
+// Open event streams by device id. This hub lives in process, so every API instance only sees its own updates.
+const subscribers = new Map();
+
+/**
+ * Reduce a device document to the fields a device acts on. Secrets and the authorized user list never leave here.
+ * @param device The device document or plain object.
+ * @return {Object} The fields sent in each state event.
+ */
+function stateEvent(device) {
+    return {
+        _id: device._id,
+        name: device.name,
+        state: device.state,
+        setTemp: device.setTemp,
+        version: device.version || 0
+    };
+}
+
+/**
+ * Write a single server-sent event to a stream.
+ * @param res The open event stream response.
+ * @param device The device document to send.
+ */
+function writeState(res, device) {
+    res.write(`id: ${device.version || 0}\nevent: state\ndata: ${JSON.stringify(stateEvent(device))}\n\n`);
+}
+
+/**
+ * Push the new state of a device to every open stream for it. Called after a successful update.
+ * @param device The updated device document.
+ */
+function publishState(device) {
+    const streams = subscribers.get(String(device._id));
+    if (!streams) {
+        return;
+    }
+    for (const res of streams) {
+        writeState(res, device);
+    }
+}
+
+/**
+ * GET - /iot/:iotCode/events <br>
+ * This function opens a Server-Sent Events stream of state changes for the given iot code. A state event is sent
+ * whenever the device's mode or setpoint changes. The event id is the document version, so a client that reconnects
+ * with a Last-Event-ID header only receives the current state if it missed a change while it was away.
+ * @param req Express provided requirements. Optional Last-Event-ID header with the last version seen.
+ * @param res Express provided response. Kept open as a text/event-stream.
+ * @return {Promise<*>} 200 stream or 404 JSON. Return is an express response packed with an HTTP status code.
+ */
+async function iotEventStream(req, res) {
+    const query = await Model
+        .findOne({
+            '_id': req.params.iotCode,
+            // Same access control as reading the device directly.
+            $or: [
+                {'auth_users': { $in: [new mongoose.Types.ObjectId(req.auth._id)]}},
+                {'_id': req.auth._id}
+            ]
+        }).exec();
+
+    if (!query) {
+        return res.status(404).json({message: 'IoT couldn\'t be found or unauthorized to access.'});
+    }
+
+    res.status(200).set({
+        'Content-Type': 'text/event-stream',
+        'Cache-Control': 'no-cache',
+        'Connection': 'keep-alive',
+        'X-Accel-Buffering': 'no' // Stop nginx from buffering the stream
+    });
+    res.flushHeaders();
+
+    // Resume: only replay the current state if the client missed a change.
+    const lastSeen = Number.parseInt(req.get('Last-Event-ID'), 10);
+    if (Number.isNaN(lastSeen) || lastSeen !== (query.version || 0)) {
+        writeState(res, query);
+    }
+
+    const key = String(query._id);
+    if (!subscribers.has(key)) {
+        subscribers.set(key, new Set());
+    }
+    subscribers.get(key).add(res);
+
+    const heartbeat = setInterval(() => res.write(': heartbeat\n\n'), HEARTBEAT_MS);
+
+    req.on('close', () => {
+        clearInterval(heartbeat);
+        const streams = subscribers.get(key);
+        if (streams) {
+            streams.delete(res);
+            if (streams.size === 0) {
+                subscribers.delete(key);
+            }
+        }
+    });
+}
+
+module.exports = {
+    iotEventStream,
+    publishState,
+    stateEvent
+}
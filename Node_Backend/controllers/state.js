@@ -1,5 +1,6 @@
 const mongoose = require('mongoose');
 const Model = mongoose.model('iot');
+const events = require('./events');
 
 /**
  * GET - /iot <br>
@@ -33,21 +34,46 @@ async function iotList(req, res) {
 
 /**
  * GET - /iot/:iotCode <br>
- * This function lists the iot by the given code.
+ * This function lists the iot by the given code. When the device itself asks it only gets the fields it acts on, with
+ * an ETag so it can poll with If-None-Match and get a 304 back when nothing changed.
  * @param req Express provided requirements
  * @param res Express provided response.
  * @return {Promise<*>} Returns a packed express response with status code 200/404 with json content.
  */
 async function iotsFindByCode(req, res) {
-    const query = await Model
-        .findOne({
-                '_id': req.params.iotCode,
-                // Access control to ensure that only the device itself or an authorized user can update the device info.
-                $or: [
-                    {'auth_users': { $in: [new mongoose.Types.ObjectId(req.auth._id)]}},
-                    {'_id': req.auth._id}
-                ]
-        }).exec();
+    const access = {
+        '_id': req.params.iotCode,
+        // Access control to ensure that only the device itself or an authorized user can update the device info.
+        $or: [
+            {'auth_users': { $in: [new mongoose.Types.ObjectId(req.auth._id)]}},
+            {'_id': req.auth._id}
+        ]
+    };
+
+    // Devices only act on the fields in a state event, which change exactly when the version does. They get a
+    // version based ETag and a 304 when nothing changed, checked against the version alone before loading the rest.
+    if (req.params.iotCode === req.auth._id) {
+        const current = await Model.findOne(access).select('version').lean().exec();
+        if (!current) {
+            return res.status(404).json({message: 'IoT couldn\'t be found or unauthorized to access.'});
+        }
+
+        const etag = `"${current._id}-${current.version || 0}"`;
+        res.set('ETag', etag);
+        if (req.get('If-None-Match') === etag) {
+            return res.status(304).end();
+        }
+
+        const device = await Model.findOne(access).select('name state setTemp version').lean().exec();
+        if (!device) {
+            return res.status(404).json({message: 'IoT couldn\'t be found or unauthorized to access.'});
+        }
+        // The version may have moved on between the two reads
+        res.set('ETag', `"${device._id}-${device.version || 0}"`);
+        return res.status(200).json(events.stateEvent(device));
+    }
+
+    const query = await Model.findOne(access).exec();
 
     if (!query) {
         return res.status(404).json({message: 'IoT couldn\'t be found or unauthorized to access.'});
@@ -88,6 +114,9 @@ async function iotsUpdateIot(req, res) {
         updateFields.auth_users = req.body.auth_users.map(userId => new mongoose.Types.ObjectId(userId));
     }
 
+    // Bump the version when anything a device acts on changes so open event streams and caches can tell
+    const controlChanged = Object.keys(updateFields).length > 0;
+
     // Update the lastChecked and currentTemp only if it's the device itself
     if (req.params.iotCode === req.auth._id) {
         updateFields.lastChecked = new Date();
@@ -105,10 +134,14 @@ async function iotsUpdateIot(req, res) {
                 {'_id': req.auth._id}
             ]
         },
-        { $set: updateFields },
+        controlChanged ? { $set: updateFields, $inc: { version: 1 } } : { $set: updateFields },
         { new: true } // Return the updated document
     ).exec();
 
+    if (query && controlChanged) {
+        events.publishState(query);
+    }
+
     if (!query){
         // Database returned nothing
         return res.status(400).json({message: 'Update failed or unauthorized'});
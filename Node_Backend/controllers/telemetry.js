@@ -0,0 +1,56 @@
+const mongoose = require('mongoose');
+const Telemetry = mongoose.model('telemetry');
+const IotDevice = mongoose.model('iot');
+
+// Upper bound on samples accepted in a single request, keeps the body under express.json()'s 100kb default.
+const MAX_BATCH = 2000;
+
+/**
+ * POST - /iot/:iotCode/telemetry <br>
+ * This function bulk ingests a batch of telemetry samples from a device. The body is column-wise; t holds epoch
+ * milliseconds and temp/humidity hold the matching readings. The device document's currentTemp and lastChecked are
+ * updated from the newest sample in the same request.
+ * @param req Express provided requirements. JSON body with t, temp and humidity arrays.
+ * @param res Express provided response.
+ * @return {Promise<*>} 201/400/403. Return is an express response packed with an HTTP status code and JSON data.
+ */
+async function iotTelemetryIngest(req, res) {
+    // Only the device itself may report telemetry for itself.
+    if (req.params.iotCode !== req.auth._id) {
+        return res.status(403).json({message: 'Only the device can report its own telemetry.'});
+    }
+
+    const {t, temp, humidity} = req.body;
+    if (!Array.isArray(t) || !Array.isArray(temp) || !Array.isArray(humidity)) {
+        return res.status(400).json({message: 't, temp and humidity arrays are required.'});
+    }
+    if (t.length === 0 || t.length !== temp.length || t.length !== humidity.length) {
+        return res.status(400).json({message: 't, temp and humidity must be non-empty and the same length.'});
+    }
+    if (t.length > MAX_BATCH) {
+        return res.status(400).json({message: `Batches are limited to ${MAX_BATCH} samples.`});
+    }
+
+    const device = new mongoose.Types.ObjectId(req.params.iotCode);
+    const samples = t.map((time, i) => ({
+        t: new Date(time),
+        device: device,
+        temp: temp[i],
+        humidity: humidity[i]
+    }));
+
+    await Telemetry.insertMany(samples, {ordered: false});
+
+    // Keep the device document current with the newest sample.
+    const newest = t.length - 1;
+    await IotDevice.updateOne(
+        {'_id': device},
+        {$set: {currentTemp: temp[newest], lastChecked: new Date()}}
+    ).exec();
+
+    return res.status(201).json({message: `Stored ${samples.length} samples for IoT device ${req.params.iotCode}.`});
+}
+
+module.exports = {
+    iotTelemetryIngest
+}
@@ -59,4 +59,5 @@ connect();
 // Import Mongoose schema
 require('./iot');
 require('./user');
+require('./telemetry');
 module.exports = mongoose;
\ No newline at end of file
@@ -9,6 +9,7 @@ const iotDeviceSchema = new mongoose.Schema({
     currentTemp: {type: Number, default: 0.0},
     setTemp: {type: Number, default: 72.0},
     lastChecked: {type: Date, default: Date.now()},
+    version: {type: Number, default: 0}, // Incremented whenever name, state, setTemp or auth_users change
     hash: {type: String},
     salt: {type: String},
     auth_users: {type: Array}
@@ -0,0 +1,19 @@
+const mongoose = require('mongoose');
+
+// Define the telemetry schema. One document per sample stored in a time series collection keyed by device.
+const telemetrySchema = new mongoose.Schema({
+    t: {type: Date, required: true},
+    device: {type: mongoose.Schema.Types.ObjectId, required: true},
+    temp: {type: Number},
+    humidity: {type: Number}
+}, {
+    timeseries: {
+        timeField: 't',
+        metaField: 'device',
+        granularity: 'seconds'
+    },
+    versionKey: false
+});
+
+const Telemetry = mongoose.model('telemetry', telemetrySchema, 'telemetry');
+module.exports = Telemetry;
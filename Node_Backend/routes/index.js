@@ -2,6 +2,8 @@ const express = require('express');
 const router = express.Router();
 const stateCtrl = require('../controllers/state');
 const authCtrl = require('../controllers/authentication');
+const telemetryCtrl = require('../controllers/telemetry');
+const eventsCtrl = require('../controllers/events');
 const jwt = require('jsonwebtoken'); // Enable JWT
 
 /**
@@ -62,4 +64,14 @@ router
     .put(authenticateJWT, stateCtrl.iotsUpdateIot)
     .delete(authenticateJWT, stateCtrl.iotsDeleteIot);
 
+// IoT device state change stream (Server-Sent Events)
+router
+    .route('/iot/:iotCode/events')
+    .get(authenticateJWT, eventsCtrl.iotEventStream);
+
+// IoT device bulk telemetry ingest
+router
+    .route('/iot/:iotCode/telemetry')
+    .post(authenticateJWT, telemetryCtrl.iotTelemetryIngest);
+
 module.exports = router;
\ No newline at end of file